@@ -0,0 +1,154 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import vcd.*;
+
+/**
+ BenchmarkVCD times the main entry points of the VCD package on one VCD file
+ and reports, for each, the time per operation, the rate in MB of VCD file
+ and in value changes per second, and the bytes allocated per operation by
+ the benchmarking thread.  Without a file argument it benchmarks a VCD file
+ written by {@link vcd.VCDGenerator} from the signal count, vector width,
+ change density, x/z density, and number of timesteps passed on the command
+ line.
+
+ Each benchmark is run a few times to warm up the JIT before the measured
+ runs.  Allocation is measured with the HotSpot ThreadMXBean, so it misses
+ what the workers of a parallel read allocate.
+*/
+public class BenchmarkVCD
+{
+    static int signals = 1000;
+    static int width = 8;
+    static double density = 0.1;
+    static double xz = 0.0;
+    static int steps = 10000;
+    static int threads = 1;
+    static int warmups = 2;
+    static int iterations = 5;
+
+    static File vcdFile;
+    static long changes;
+
+    // One operation of a benchmark
+    interface Op
+    {
+        void run()throws IOException;
+    }
+
+    public static void main(String args[])throws IOException
+    {
+        String file = null;
+        for(int arg = 0; arg < args.length; ++arg)
+        {
+            if(args[arg].equals("-signals") && arg + 1 < args.length)
+                signals = Integer.parseInt(args[++arg]);
+            else if(args[arg].equals("-width") && arg + 1 < args.length)
+                width = Integer.parseInt(args[++arg]);
+            else if(args[arg].equals("-density") && arg + 1 < args.length)
+                density = Double.parseDouble(args[++arg]);
+            else if(args[arg].equals("-xz") && arg + 1 < args.length)
+                xz = Double.parseDouble(args[++arg]);
+            else if(args[arg].equals("-steps") && arg + 1 < args.length)
+                steps = Integer.parseInt(args[++arg]);
+            else if(args[arg].equals("-threads") && arg + 1 < args.length)
+                threads = Integer.parseInt(args[++arg]);
+            else if(args[arg].equals("-iterations") && arg + 1 < args.length)
+                iterations = Integer.parseInt(args[++arg]);
+            else if(!args[arg].startsWith("-") && file == null)
+                file = args[arg];
+            else
+            {
+                System.err.println("Usage: java BenchmarkVCD [-signals n] [-width bits] [-density fraction] [-xz fraction] [-steps n] [-threads n] [-iterations n] [file.vcd[.gz]]");
+                System.exit(1);
+            }
+        }
+
+        if(file == null)
+        {
+            vcdFile = File.createTempFile("bench", ".vcd");
+            vcdFile.deleteOnExit();
+            VCDGenerator generator = new VCDGenerator(1);
+            generator.setSignalCount(signals);
+            generator.setWidths(new int[] {width}, new double[] {1});
+            generator.setToggleRates(density, density);
+            generator.setXZDensity(xz);
+            generator.setSteps(steps);
+            generator.write(vcdFile.getPath());
+        }
+        else
+        {
+            vcdFile = new File(file);
+        }
+
+        // Count the value changes once, for the changes/s column
+        VCD counted = new VCD(vcdFile.getPath());
+        counted.readValuesFromVCD();
+        for(int index = 0; index < counted.getSignalCount(); ++index)
+            changes += counted.getSignal(index).getToggles();
+
+        System.out.println(String.format("%s: %.1f MB, %d signals, %d changes", vcdFile.getPath(), vcdFile.length() / 1e6, counted.getSignalCount(), changes));
+        System.out.println(String.format("%-28s %10s %10s %14s %14s", "benchmark", "ms/op", "MB/s", "changes/s", "KB alloc/op"));
+
+        run("createSymbolTable", false, false, () -> new VCD(vcdFile.getPath()).getSignalCount());
+        run("getLastTime", false, false, () -> new VCD(vcdFile.getPath()).getLastTime());
+        run("readValuesFromVCD", true, true, () ->
+        {
+            VCD vcd = new VCD(vcdFile.getPath());
+            vcd.setParsingThreads(threads);
+            vcd.readValuesFromVCD();
+        });
+        run("readValuesFromVCD (history)", true, true, () ->
+        {
+            VCD vcd = new VCD(vcdFile.getPath(), true);
+            vcd.setParsingThreads(threads);
+            vcd.readValuesFromVCD();
+        });
+        run("collectTimes", true, true, () -> new VCD(vcdFile.getPath()).collectTimes());
+
+        // SignalHistory.setValue on its own, on the widest signal of the file
+        // that fits in 64 bits, one operation being a million updates
+        VCD history = new VCD(vcdFile.getPath(), true);
+        SignalHistory widest = null;
+        for(int index = 0; index < history.getSignalCount(); ++index)
+        {
+            Signal candidate = history.getSignal(index);
+            if(candidate.getWidth() <= 64 && (widest == null || candidate.getWidth() > widest.getWidth()))
+                widest = (SignalHistory)candidate;
+        }
+        if(widest == null)
+            return;
+        final SignalHistory sig = widest;
+        final int updates = 1000000;
+        changes = updates;
+        run("SignalHistory.setValue", false, true, () ->
+        {
+            sig.resetHistory();
+            for(int update = 0; update < updates; ++update)
+                sig.setValue(update * 0x9E3779B97F4A7C15L, 0, update);
+        });
+    }
+
+    // Runs a benchmark and prints its line of the report
+    private static void run(String pName, boolean pReportMB, boolean pReportChanges, Op pOp)throws IOException
+    {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+        for(int warmup = 0; warmup < warmups; ++warmup)
+            pOp.run();
+
+        long allocated = mx.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for(int iteration = 0; iteration < iterations; ++iteration)
+            pOp.run();
+        double seconds = (System.nanoTime() - start) / 1e9 / iterations;
+        allocated = (mx.getCurrentThreadAllocatedBytes() - allocated) / iterations;
+
+        System.out.println(String.format("%-28s %10.2f %10s %14s %14.1f",
+                                         pName,
+                                         seconds * 1000,
+                                         pReportMB ? String.format("%.1f", vcdFile.length() / 1e6 / seconds) : "-",
+                                         pReportChanges ? String.format("%.0f", changes / seconds) : "-",
+                                         allocated / 1024.0));
+    }
+}
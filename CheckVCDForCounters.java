@@ -15,13 +15,23 @@ public class CheckVCDForCounters
     
     public static void main(String args[])throws IOException
     {
-        if(args.length != 1)
+        // -cache keeps a .cache file next to the VCD file for later runs
+        boolean streaming = args.length == 2 && args[0].equals("-stream");
+        boolean caching = args.length == 2 && args[0].equals("-cache");
+        if(args.length != 1 && !streaming && !caching)
         {
-            System.err.println("Usage: java testVCD file.vcd");
+            System.err.println("Usage: java CheckVCDForCounters [-stream | -cache] vcdFile.vcd[.gz]");
             System.exit(1);
         }
         
-        vcd = new VCD(args[0], true);
+        if(streaming)
+        {
+            checkStreaming(args[1]);
+            return;
+        }
+        
+        vcd = new VCD(args[args.length - 1], true);
+        vcd.setCacheEnabled(caching);
         vcd.readValuesFromVCD();
         System.out.println("Signals: " + vcd.signals.size());
 
@@ -48,6 +58,114 @@ public class CheckVCDForCounters
 	printSuspectsConstants();
     }
 
+    // Find the same suspects as the steps below while reading the VCD file,
+    // without keeping the history of any signal.  A signal with more than
+    // about a thousand distinct values that cannot be kept as runs (i.e.,
+    // that is not counting) is only checked approximately from then on; if
+    // it never definitely repeats a value it stays a suspect and is counted
+    // as unverified, where the run with histories may have dropped it.
+    // Suspects that match on only one fingerprint are kept and counted too
+    private static void checkStreaming(String pFile)throws IOException
+    {
+	VCD streamVCD = new VCD(pFile);
+	CounterDetector detector = new CounterDetector(streamVCD);
+	streamVCD.setChangeListener(detector);
+	streamVCD.readValuesFromVCD();
+	System.out.println("Signals: " + streamVCD.signals.size());
+
+	// Suspects never repeat a value; identical suspects share both
+	// fingerprints and counters, and the one with the longer path is kept.
+	// Suspects that only share the first fingerprint and counters may still
+	// be identical, which only the histories can tell
+	ArrayList<Integer> streamSuspects = new ArrayList<Integer>();
+	HashSet<Integer> possibleDupes = new HashSet<Integer>();
+	HashMap<Long, ArrayList<Integer>> byFingerprint = new HashMap<Long, ArrayList<Integer>>();
+	for(int index = 0; index < detector.getSignalCount(); ++index)
+	{
+	    if(detector.hasRepeatedValue(index))
+		continue;
+
+	    if(detector.getUpdates(index) == 0)
+	    {
+		streamSuspects.add(index);
+		continue;
+	    }
+
+	    Signal sig = streamVCD.getSignal(index);
+	    ArrayList<Integer> candidates = byFingerprint.computeIfAbsent(detector.getFingerprint(index), k -> new ArrayList<Integer>(1));
+	    boolean foundDupe = false;
+	    boolean possibleDupe = false;
+	    for(int candidate: candidates)
+	    {
+		int uniqueIndex = streamSuspects.get(candidate);
+		Signal uniqueSig = streamVCD.getSignal(uniqueIndex);
+		if(uniqueSig.getWidth() != sig.getWidth() || uniqueSig.getToggles() != sig.getToggles() || uniqueSig.getTimeLow() != sig.getTimeLow() || uniqueSig.getTimeHigh() != sig.getTimeHigh())
+		    continue;
+
+		if(detector.getChecksum(uniqueIndex) == detector.getChecksum(index))
+		{
+		    if(sig.getPath().length() > uniqueSig.getPath().length())
+			streamSuspects.set(candidate, index);
+		    foundDupe = true;
+		    break;
+		}
+		possibleDupe = true;
+	    }
+
+	    if(!foundDupe)
+	    {
+		if(possibleDupe)
+		    possibleDupes.add(index);
+		candidates.add(streamSuspects.size());
+		streamSuspects.add(index);
+	    }
+	}
+
+	// Drop the fully-expressed suspects, then report as printSuspectsConstants does
+	streamSuspects.removeIf(index -> detector.isFullyExpressed(index));
+
+	int constants = 0;
+	for(int index: streamSuspects)
+	{
+	    if(detector.isConstant(index))
+	    {
+		++constants;
+		if(REPORT_FINAL_STEP)
+		    System.out.println("Constant: " + streamVCD.getSignal(index).getName());
+	    }
+	}
+
+	if(REPORT_FINAL_STEP)
+	{
+	    for(int index: streamSuspects)
+	    {
+		if(!detector.isConstant(index))
+		    System.out.println("Possible counter: " + streamVCD.getSignal(index).getName());
+	    }
+	}
+
+	System.out.println(constants + " constants");
+	System.out.println((streamSuspects.size() - constants) + " possible counters");
+
+	int unverified = 0;
+	for(int index: streamSuspects)
+	{
+	    if(detector.mayHaveRepeatedValue(index))
+		++unverified;
+	}
+	if(unverified > 0)
+	    System.out.println(unverified + " possible counters may repeat a value; run without -stream to check them");
+
+	int dupes = 0;
+	for(int index: streamSuspects)
+	{
+	    if(possibleDupes.contains(index))
+		++dupes;
+	}
+	if(dupes > 0)
+	    System.out.println(dupes + " suspects may be identical to another suspect; run without -stream to check them");
+    }
+
     // After processing the VCD file, look for signals without repeating values
     // Add any such signals to the suspects list
     private static void generateInitialSuspects()
@@ -102,30 +220,41 @@ public class CheckVCDForCounters
 	    return;
 	}
 
-	// Compare every signal to every other signal
-	// Remove the suspects with the shorter path
-	int numSuspects = suspects.size();
-	for(int susA = 0; susA < numSuspects; ++susA)
+	// Group suspects by the fingerprint of their history and only compare
+	// suspects with the same fingerprint, keeping the one with the longer path
+	ArrayList<SignalHistory> unique = new ArrayList<SignalHistory>(suspects.size());
+	HashMap<Long, ArrayList<Integer>> byFingerprint = new HashMap<Long, ArrayList<Integer>>(suspects.size() * 2);
+	for(SignalHistory susSig: suspects)
 	{
-	    // Skip suspects with only init values
-	    if(suspects.get(susA).getValues().size() == 0)
+	    // Keep suspects with only init values as they are
+	    if(susSig.getValueCount() == 0)
+	    {
+		unique.add(susSig);
 		continue;
-	    
-	    SignalHistory susSigA = suspects.get(susA);
-	    for(int susB = susA + 1; susB < numSuspects; ++susB)
+	    }
+
+	    ArrayList<Integer> candidates = byFingerprint.computeIfAbsent(susSig.getFingerprint(), k -> new ArrayList<Integer>(1));
+	    boolean foundDupe = false;
+	    for(int candidate: candidates)
 	    {
-		SignalHistory susSigB = suspects.get(susB);
-		if(susSigA.equals(susSigB))
+		SignalHistory uniqueSig = unique.get(candidate);
+		if(uniqueSig.equals(susSig))
 		{
-		    SignalHistory susWithLongerPath = susSigA.getPath().length() >= susSigB.getPath().length() ? susSigA : susSigB;
-		    suspects.remove(susB);
-		    suspects.set(susA, susWithLongerPath);
-		    --susB;
-		    --numSuspects;
+		    if(susSig.getPath().length() > uniqueSig.getPath().length())
+			unique.set(candidate, susSig);
+		    foundDupe = true;
+		    break;
 		}
 	    }
+
+	    if(!foundDupe)
+	    {
+		candidates.add(unique.size());
+		unique.add(susSig);
+	    }
 	}
-	
+
+	suspects = unique;
     }
 
     // Given a set of suspects signals, remove signals that are fully-expressed (all values seen)
@@ -147,7 +276,7 @@ public class CheckVCDForCounters
 	    if(suspect.getWidth() > 28)
 		continue;
 	    
-	    int numValues = suspect.getValues().size();
+	    int numValues = suspect.getValueCount();
 	    int numPossibleValues = 0x1 << suspect.getWidth();
 
 	    if(numValues == numPossibleValues)
@@ -182,7 +311,7 @@ public class CheckVCDForCounters
 	
 	for(SignalHistory sig: suspects)
 	{
-	    if(sig.getValues().size() < 2)
+	    if(sig.getValueCount() < 2)
 	    {
 		++constants;
 		if(REPORT_FINAL_STEP)
@@ -194,7 +323,7 @@ public class CheckVCDForCounters
 	{
 	    for(SignalHistory sig: suspects)
 	    {
-		if(sig.getValues().size() > 1)
+		if(sig.getValueCount() > 1)
 		{
 		    System.out.println("Possible counter: " + sig.getName());
 		    if(PRINT_VALUES)
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import vcd.*;
+
+/**
+ GenerateVCD writes a synthetic VCD file with {@link vcd.VCDGenerator}.  The
+ same options always give the same file, so generated files can stand in
+ for large simulation dumps when testing and benchmarking the VCD package.
+*/
+public class GenerateVCD
+{
+    public static void main(String args[])throws IOException
+    {
+        long seed = 1;
+        String file = null;
+        
+        // The seed has to come first, since the generator is built from it
+        int arg = 0;
+        if(args.length > 1 && args[0].equals("-seed"))
+        {
+            seed = Long.parseLong(args[1]);
+            arg = 2;
+        }
+        VCDGenerator generator = new VCDGenerator(seed);
+        
+        try
+        {
+            for(; arg < args.length; ++arg)
+            {
+                if(args[arg].equals("-signals") && arg + 1 < args.length)
+                {
+                    generator.setSignalCount(Integer.parseInt(args[++arg]));
+                }
+                else if(args[arg].equals("-hierarchy") && arg + 1 < args.length)
+                {
+                    String[] shape = args[++arg].split(":");
+                    generator.setHierarchy(Integer.parseInt(shape[0]), Integer.parseInt(shape[1]));
+                }
+                else if(args[arg].equals("-widths") && arg + 1 < args.length)
+                {
+                    String[] choices = args[++arg].split(",");
+                    int[] widths = new int[choices.length];
+                    double[] weights = new double[choices.length];
+                    for(int choice = 0; choice < choices.length; ++choice)
+                    {
+                        String[] parts = choices[choice].split(":");
+                        widths[choice] = Integer.parseInt(parts[0]);
+                        weights[choice] = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+                    }
+                    generator.setWidths(widths, weights);
+                }
+                else if(args[arg].equals("-toggle") && arg + 1 < args.length)
+                {
+                    String[] range = args[++arg].split(":");
+                    generator.setToggleRates(Double.parseDouble(range[0]), Double.parseDouble(range[range.length - 1]));
+                }
+                else if(args[arg].equals("-xz") && arg + 1 < args.length)
+                {
+                    generator.setXZDensity(Double.parseDouble(args[++arg]));
+                }
+                else if(args[arg].equals("-steps") && arg + 1 < args.length)
+                {
+                    generator.setSteps(Long.parseLong(args[++arg]));
+                }
+                else if(args[arg].equals("-timestep") && arg + 1 < args.length)
+                {
+                    generator.setTimeStep(Long.parseLong(args[++arg]));
+                }
+                else if(args[arg].equals("-mb") && arg + 1 < args.length)
+                {
+                    generator.setMaxBytes(Long.parseLong(args[++arg]) << 20);
+                }
+                else if(!args[arg].startsWith("-") && file == null)
+                {
+                    file = args[arg];
+                }
+                else
+                {
+                    file = null;
+                    break;
+                }
+            }
+        }
+        catch(IllegalArgumentException iae)
+        {
+            System.err.println(iae.getMessage());
+            file = null;
+        }
+        
+        if(file == null)
+        {
+            System.err.println("Usage: java GenerateVCD [-seed n] [-signals n] [-hierarchy depth:fanout] [-widths w:weight,...] [-toggle min:max] [-xz fraction] [-steps n] [-timestep n] [-mb n] file.vcd[.gz]");
+            System.exit(1);
+        }
+        
+        long bytes = generator.write(file);
+        System.out.println("Wrote " + bytes + " bytes of VCD to " + file);
+    }
+}
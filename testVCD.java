@@ -1,5 +1,6 @@
 import java.io.IOException;
 import java.util.*;
+import java.io.File;
 import java.io.FileWriter;
 import vcd.*;
 
@@ -9,6 +10,7 @@ public class testVCD implements TimeCallback
     public static final int NUM_BINS = 400;
     
     static VCD vcd;
+    static ToggleHistogram histogram;
     static long maxTime;
     static int percent = 0;
     
@@ -26,7 +28,8 @@ public class testVCD implements TimeCallback
             
             outputHistorgram();
             System.out.println("########################");
-            vcd.resetPerformanceCounters();
+            vcd.resetPerformanceCounters(pTime);
+            histogram.reset();
         }
     }
     
@@ -35,44 +38,14 @@ public class testVCD implements TimeCallback
         try{
         FileWriter out = new FileWriter("hist_" + percent + ".txt");
         
-        // Sort the signals by increasing toggle counts
-        ArrayList<Signal> signalList = new ArrayList<Signal>(vcd.signals.values());
-        Collections.sort(signalList, new Comparator<Signal>() {
-            public int compare(Signal pA, Signal pB)
-            {
-                return (int)(pA.getToggles() - pB.getToggles());
-            }
-        });
-        
-        // Print the sorted list
-        //for(Signal sig : signalList)
-        //{
-        //    System.out.println(sig.getName() + "\t" + sig.getToggles());
-        //}
-        //System.out.println("########################");
-        
-        // For each toggle count, count the number of signals with that count
-        int binIndex = 0;
-        int[] bins = new int[NUM_BINS];
-        long maxToggles = signalList.get(signalList.size() - 1).getToggles();
-        long binSize = maxToggles / NUM_BINS + 1;
-        long currentToggleBinCap = binSize;
-        for(Signal sig : signalList)
-        {
-            // Be careful, there may be more than one bin between signals
-            while(sig.getToggles() > currentToggleBinCap)
-            {
-                currentToggleBinCap += binSize;
-                ++binIndex;
-            }
-            
-            bins[binIndex]++;
-        }
+        // The histogram already counts the signals with each toggle count
+        int[] bins = histogram.getBins(NUM_BINS);
+        long binSize = histogram.getBinSize(NUM_BINS);
         
         // Print out each toggle count as a toggle rate, with the number of signals with that count/rate
-        for(binIndex = 0; binIndex < NUM_BINS; ++binIndex)
+        for(int binIndex = 0; binIndex < NUM_BINS; ++binIndex)
         {
-            out.write(String.format("%d\t%d\t%.4f\t%.4f\n", (binIndex * binSize), bins[binIndex], ((double)binIndex)/NUM_BINS, ((double)bins[binIndex])/signalList.size()));
+            out.write(String.format("%d\t%d\t%.4f\t%.4f\n", (binIndex * binSize), bins[binIndex], ((double)binIndex)/NUM_BINS, ((double)bins[binIndex])/histogram.getSignalCount()));
         }
         
         out.close();
@@ -83,6 +56,44 @@ public class testVCD implements TimeCallback
         }
     }
     
+    // Sets a history wider than 64 bits through the single-word setter and
+    // checks that its upper bits read back as zeros, and that it equals a
+    // history given the same value through the word array setter
+    private static void checkWideHistory()throws IOException
+    {
+        File wide = File.createTempFile("wide", ".vcd");
+        try
+        {
+            FileWriter out = new FileWriter(wide);
+            out.write("$scope module top $end\n$var reg 70 ! wide [69:0] $end\n$var reg 70 \" words [69:0] $end\n$upscope $end\n$enddefinitions $end\n");
+            out.write("$dumpvars\n$end\n#0\n");
+            out.close();
+            
+            VCD wideVCD = new VCD(wide.getPath(), true);
+            wideVCD.readValuesFromVCD();
+            SignalHistory sig = (SignalHistory)wideVCD.getSignal(0);
+            sig.setValue(5L, 0L, 10);
+            SignalHistory words = (SignalHistory)wideVCD.getSignal(1);
+            words.setValue(new long[]{5L, 0L}, new long[2], 10);
+            
+            String value = sig.getValues().get(0).getValue();
+            if(!value.equals("b101"))
+            {
+                System.err.println("ERROR: 70-bit history set to 5 reads back as " + value);
+                System.exit(1);
+            }
+            if(!sig.equals(words))
+            {
+                System.err.println("ERROR: 70-bit histories with the same values differ");
+                System.exit(1);
+            }
+        }
+        finally
+        {
+            wide.delete();
+        }
+    }
+    
     public static void main(String args[])throws IOException
     {
         if(args.length != 1)
@@ -91,9 +102,13 @@ public class testVCD implements TimeCallback
             System.exit(1);
         }
         
+        checkWideHistory();
+        
         vcd = new VCD(args[0]);
         maxTime = vcd.getLastTime();
         vcd.setTimeUpdateCallback(new testVCD());
+        histogram = new ToggleHistogram(vcd.getSignalCount());
+        vcd.setChangeListener(histogram);
         
         //vcd.printHeader();
         System.out.println("########################");
@@ -0,0 +1,325 @@
+package vcd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ ChangeIndex answers "at which times did this signal take this value"
+ without scanning the VCD file for each question.  It is built in one pass
+ over the file (see {@link vcd.VCD#getChangeIndex}) and records, for every
+ signal, the time and the byte offset of each of its value changes,
+ including those in $dumpvars and the other dump blocks.  A query reads
+ only the changes of the signal it asks about, jumping straight to them in
+ the file, so repeated queries on the same file each cost time in
+ proportion to the changes of one signal.  Gzipped VCD files cannot be
+ jumped around in without decompressing, so for them the index keeps the
+ value of each change, as queries see it, in place of its offset.
+
+ Times, offsets, and values are kept in variable-length bytes, times and
+ offsets as deltas, so the index takes a few bytes per change no matter
+ how wide the signal is.
+
+ Queries compare a value as an unsigned number of up to 64 bits, so values
+ with x or z bits, and values of wider signals with any bit set above the
+ lowest 64, never match.  Reals are compared by the bits of their IEEE 754
+ encoding.  Once built, the index can be queried from several threads at
+ once; each query reads the file through its own lexer.
+
+ @author Matthew Hicks
+ @see VCD#getChangeIndex
+*/
+public class ChangeIndex
+{
+    private final VCD vcd;
+    private final Signal[] signals;
+
+    // Changes of gzipped files hold values instead of offsets
+    private final boolean inline;
+
+    // Per signal, (time delta, offset delta) pairs in variable-length bytes,
+    // or (time delta, value, x/z flag) triples when inline
+    private final byte[][] entries;
+    private final int[] entryBytes;
+    private final int[] counts;
+    private final long[] lastTimes;
+    private final long[] lastOffsets;
+
+    /**
+     Constructs an empty index for the signals of a VCD file.
+     @author Matthew Hicks
+     @param pVCD The file the changes are read from.
+     @param pSignals The signals, in index order.
+     @param pInline true to keep values rather than offsets, for files that
+     cannot be jumped around in.
+    */
+    ChangeIndex(VCD pVCD, Signal[] pSignals, boolean pInline)
+    {
+        vcd = pVCD;
+        signals = pSignals;
+        inline = pInline;
+        entries = new byte[pSignals.length][];
+        entryBytes = new int[pSignals.length];
+        counts = new int[pSignals.length];
+        lastTimes = new long[pSignals.length];
+        lastOffsets = new long[pSignals.length];
+    }
+
+    /**
+     Records the value change token last scanned by a lexer; changes of
+     each signal must arrive in file order.
+     @author Matthew Hicks
+     @param pSignal The signal named by the token's symbol.
+     @param pTime Time of the change.
+     @param pLexer Lexer whose last token is the change.
+     @throws java.io.IOException if the changes of the signal no longer fit
+     in the index
+    */
+    void add(Signal pSignal, long pTime, VCDLexer pLexer)throws IOException
+    {
+        int index = pSignal.getIndex();
+
+        // Two numbers and a flag take at most 21 bytes
+        byte[] bytes = entries[index];
+        if(bytes == null)
+            bytes = entries[index] = new byte[32];
+        else if(bytes.length - entryBytes[index] < 21)
+        {
+            long grown = Math.min((long)bytes.length << 1, Integer.MAX_VALUE - 8);
+            if(grown - entryBytes[index] < 21)
+                throw new IOException("ERROR: too many value changes to index for signal " + pSignal.getName());
+            bytes = entries[index] = Arrays.copyOf(bytes, (int)grown);
+        }
+
+        int pos = putVarLong(bytes, entryBytes[index], pTime - lastTimes[index]);
+        if(inline)
+        {
+            boolean matchable = decodeMatchable(pLexer, pSignal);
+            pos = putVarLong(bytes, pos, decodedValue(pLexer, pSignal));
+            bytes[pos++] = (byte)(matchable ? 0 : 1);
+        }
+        else
+        {
+            long offset = pLexer.getTokenOffset();
+            pos = putVarLong(bytes, pos, offset - lastOffsets[index]);
+            lastOffsets[index] = offset;
+        }
+        entryBytes[index] = pos;
+        lastTimes[index] = pTime;
+        ++counts[index];
+    }
+
+    /**
+     Returns the number of signals in the index.
+     @author Matthew Hicks
+     @return Number of signals.
+    */
+    public int getSignalCount()
+    {
+        return signals.length;
+    }
+
+    /**
+     Returns the number of value changes of a signal, including values set
+     by dump blocks.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return Number of changes.
+    */
+    public int getChangeCount(int pIndex)
+    {
+        return counts[pIndex];
+    }
+
+    /**
+     Returns the times of every value change of a signal, in file order,
+     without reading the file.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return The times of the changes.
+    */
+    public long[] getChangeTimes(int pIndex)
+    {
+        long[] times = new long[counts[pIndex]];
+        ByteBuffer in = open(pIndex);
+        long time = 0;
+        for(int change = 0; change < times.length; ++change)
+        {
+            times[change] = (time += ValueCache.readVarLong(in));
+            ValueCache.readVarLong(in);
+            if(inline)
+                in.get();
+        }
+
+        return times;
+    }
+
+    /**
+     Returns the times at which a signal changed to the passed value.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @param pValue The value.
+     @return The times of the matching changes, in file order.
+     @throws java.io.IOException if the file cannot be read
+    */
+    public long[] timesSignalIsValue(int pIndex, long pValue)throws IOException
+    {
+        return findTimes(pIndex, -1L, pValue, 0, -1L);
+    }
+
+    /**
+     Returns the times at which a signal changed to a value in the passed
+     range, compared as unsigned numbers.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @param pLow Smallest value in the range.
+     @param pHigh Largest value in the range.
+     @return The times of the matching changes, in file order.
+     @throws java.io.IOException if the file cannot be read
+    */
+    public long[] timesSignalInRange(int pIndex, long pLow, long pHigh)throws IOException
+    {
+        return findTimes(pIndex, 0, 0, pLow, pHigh);
+    }
+
+    /**
+     Returns the times at which a signal changed to a value whose bits
+     under the passed mask equal those of the passed value; the other bits
+     can be anything but x or z.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @param pMask Bits of the value to compare.
+     @param pValue The value.
+     @return The times of the matching changes, in file order.
+     @throws java.io.IOException if the file cannot be read
+    */
+    public long[] timesSignalMatches(int pIndex, long pMask, long pValue)throws IOException
+    {
+        return findTimes(pIndex, pMask, pValue, 0, -1L);
+    }
+
+    /**
+     Returns the times at which a signal changed to a value that both
+     matches the passed value under the passed mask and falls in the passed
+     (unsigned) range.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @param pMask Bits of the value to compare.
+     @param pValue The value.
+     @param pLow Smallest value in the range.
+     @param pHigh Largest value in the range.
+     @return The times of the matching changes, in file order.
+     @throws java.io.IOException if the file cannot be read
+    */
+    public long[] findTimes(int pIndex, long pMask, long pValue, long pLow, long pHigh)throws IOException
+    {
+        long[] times = new long[Math.min(counts[pIndex], 16)];
+        int found = 0;
+
+        ByteBuffer in = open(pIndex);
+        long time = 0;
+        long offset = 0;
+        VCDLexer lexer = null;
+        try
+        {
+            for(int change = 0; change < counts[pIndex]; ++change)
+            {
+                time += ValueCache.readVarLong(in);
+
+                long value;
+                boolean matchable;
+                if(inline)
+                {
+                    value = ValueCache.readVarLong(in);
+                    matchable = in.get() == 0;
+                }
+                else
+                {
+                    offset += ValueCache.readVarLong(in);
+                    if(lexer == null)
+                        lexer = vcd.openLexerAt(offset);
+                    else
+                        lexer.seek(offset);
+                    lexer.next();
+                    matchable = decodeMatchable(lexer, signals[pIndex]);
+                    value = decodedValue(lexer, signals[pIndex]);
+                }
+
+                if(!matchable || (value & pMask) != (pValue & pMask))
+                    continue;
+                if(Long.compareUnsigned(value, pLow) < 0 || Long.compareUnsigned(value, pHigh) > 0)
+                    continue;
+
+                if(found == times.length)
+                    times = Arrays.copyOf(times, times.length << 1);
+                times[found++] = time;
+            }
+        }
+        finally
+        {
+            if(lexer != null)
+                lexer.close();
+        }
+
+        return Arrays.copyOf(times, found);
+    }
+
+    // Decodes the value of a change token in the lexer, returning false if
+    // it has x or z bits or does not fit in 64 bits, so matches nothing
+    private static boolean decodeMatchable(VCDLexer pLexer, Signal pSignal)
+    {
+        int width = widthOf(pSignal);
+        if(pLexer.decode(width))
+        {
+            long[] wideAval = pLexer.getWideAval();
+            long[] wideBval = pLexer.getWideBval();
+            long bval = wideBval[0];
+            for(int word = 1; word < ValueCodec.wordsFor(width); ++word)
+                bval |= wideAval[word] | wideBval[word];
+            return bval == 0;
+        }
+
+        return (pLexer.getBval() & widthMask(width)) == 0;
+    }
+
+    // Returns the low 64 bits of the value decodeMatchable decoded; state
+    // stays in the lexer, so queries on other threads do not share it
+    private static long decodedValue(VCDLexer pLexer, Signal pSignal)
+    {
+        int width = widthOf(pSignal);
+        if(width > 64)
+            return pLexer.getWideAval()[0];
+
+        return pLexer.getAval() & widthMask(width);
+    }
+
+    private static int widthOf(Signal pSignal)
+    {
+        return pSignal.getType() == SignalType.real ? 64 : Math.max(1, pSignal.getWidth());
+    }
+
+    private static long widthMask(int pWidth)
+    {
+        return pWidth >= 64 ? -1L : (1L << pWidth) - 1;
+    }
+
+    // Returns the changes of a signal for reading with ValueCache.readVarLong
+    private ByteBuffer open(int pIndex)
+    {
+        return entries[pIndex] == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(entries[pIndex], 0, entryBytes[pIndex]);
+    }
+
+    // Writes a non-negative number 7 bits at a time, returning the position
+    // just past it
+    private static int putVarLong(byte[] pBuf, int pPos, long pValue)
+    {
+        while((pValue & ~0x7FL) != 0)
+        {
+            pBuf[pPos++] = (byte)((pValue & 0x7F) | 0x80);
+            pValue >>>= 7;
+        }
+        pBuf[pPos++] = (byte)pValue;
+
+        return pPos;
+    }
+}
@@ -0,0 +1,41 @@
+package vcd;
+
+/**
+ ChangeListener is an interface for classes that want to see every value
+ change as {@link vcd.VCD#readValuesFromVCD} or {@link vcd.VCD#readValues}
+ processes the values section of a VCD file.  Changes are pushed to the
+ listener as they are applied, so streaming analyses do not need to sweep
+ {@link vcd.VCD#signals} at every timespec.  The listener needs to be
+ registered with {@link vcd.VCD#setChangeListener}.
+
+ @author Matthew Hicks
+ @see VCD
+ @see TimeCallback
+*/
+public interface ChangeListener
+{
+    /**
+     Called for every value change, after the signal has been updated.
+     @author Matthew Hicks
+     @param pIndex Index of the signal; see {@link vcd.VCD#getSignal}.
+     @param pAval The aval bits of the new value; the low 64 bits for
+     signals wider than 64 bits.
+     @param pBval The bval bits of the new value.
+     @param pTime Time of the value change.
+     @see LogicValue
+    */
+    void valueChanged(int pIndex, long pAval, long pBval, long pTime);
+
+    /**
+     Called at the end of every timestep, i.e., at the next timespec or at
+     the end of the file.
+     @author Matthew Hicks
+     @param pTime Time of the timestep that ended.
+     @param pDirty Indexes of the signals that changed during the timestep,
+     or were set by a $dumpall-style block in it, each listed once, in the
+     order they were first changed or set.  The array is reused
+     and only valid during this call.
+     @param pDirtyCount Number of valid entries in pDirty.
+    */
+    void timestepEnd(long pTime, int[] pDirty, int pDirtyCount);
+}
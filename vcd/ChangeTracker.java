@@ -0,0 +1,102 @@
+package vcd;
+
+import java.util.Arrays;
+
+/**
+ ChangeTracker forwards value changes to a {@link ChangeListener} and keeps
+ the set of signals dirtied in the current timestep.  Each signal is stamped
+ with the last timestep it was dirtied in, so the set is kept without
+ clearing anything between timesteps.
+
+ @author Matthew Hicks
+ @see ChangeListener
+*/
+final class ChangeTracker
+{
+    private final ChangeListener listener;
+    private final int[] stamps;
+    private int[] dirty = new int[256];
+    private int dirtyCount = 0;
+
+    // Timesteps are numbered from 1 so that a zero stamp is never current
+    private int step = 1;
+    private long stepTime = 0;
+    private boolean inStep = false;
+
+    /**
+     Constructs a tracker for signals indexed from 0 to pSignalCount - 1.
+     @author Matthew Hicks
+     @param pListener The listener to forward to.
+     @param pSignalCount Number of signals.
+    */
+    ChangeTracker(ChangeListener pListener, int pSignalCount)
+    {
+        listener = pListener;
+        stamps = new int[pSignalCount];
+    }
+
+    /**
+     Ends the current timestep, if any, and starts a new one.
+     @author Matthew Hicks
+     @param pTime Time of the new timestep.
+    */
+    void startStep(long pTime)
+    {
+        finish();
+        stepTime = pTime;
+        inStep = true;
+    }
+
+    /**
+     Reports the change that was just applied to a signal.
+     @author Matthew Hicks
+     @param pSignal The changed signal.
+     @param pTime Time of the change.
+    */
+    void changed(Signal pSignal, long pTime)
+    {
+        dirtied(pSignal.getIndex());
+        listener.valueChanged(pSignal.getIndex(), pSignal.getAval(), pSignal.getBval(), pTime);
+    }
+
+    /**
+     Reports a signal that was just set by a $dumpvars, $dumpall, $dumpon,
+     or $dumpoff block.  Setting a signal this way is not a change, so the
+     listener only sees the signal in the dirty list of the timestep.
+     @author Matthew Hicks
+     @param pSignal The signal that was set.
+    */
+    void dumped(Signal pSignal)
+    {
+        dirtied(pSignal.getIndex());
+    }
+
+    private void dirtied(int pIndex)
+    {
+        if(stamps[pIndex] != step)
+        {
+            stamps[pIndex] = step;
+            if(dirtyCount == dirty.length)
+                dirty = Arrays.copyOf(dirty, dirtyCount << 1);
+            dirty[dirtyCount++] = pIndex;
+        }
+
+        // Changes before the first timespec belong to time 0
+        inStep = true;
+    }
+
+    /**
+     Ends the current timestep, if any.
+     @author Matthew Hicks
+    */
+    void finish()
+    {
+        if(!inStep)
+            return;
+
+        listener.timestepEnd(stepTime, dirty, dirtyCount);
+        dirtyCount = 0;
+        ++step;
+        inStep = false;
+    }
+}
@@ -0,0 +1,274 @@
+package vcd;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ CounterDetector finds counters and constants while a VCD file is read,
+ without keeping the history of any signal.  For each signal it counts the
+ value updates, remembers whether any value was repeated (counters never
+ repeat a value), and keeps a fingerprint of the (time, value) updates that
+ matches {@link SignalHistory#getFingerprint}, so identical signals can be
+ grouped, along with a second, independent fingerprint of the same updates
+ that tells signals apart when the first ones collide.  The values a signal has had are kept in a compact set (see
+ SeenValues) only until the signal repeats one, so memory stays bounded by
+ the signals that still look like counters, not by the length of the dump.
+ Past its caps the set can only say that a value may have been seen; such
+ signals are not counted as repeating, but are marked (see
+ {@link #mayHaveRepeatedValue}).
+
+ Like a {@link SignalHistory}, only value changes are considered; values
+ set by $dumpvars and the other dump blocks are not updates.  Register the
+ detector with {@link vcd.VCD#setChangeListener} before reading the values.
+
+ @author Matthew Hicks
+ @see ChangeListener
+*/
+public class CounterDetector implements ChangeListener
+{
+    private final Signal[] signals;
+
+    private final long[] updates;
+    private final boolean[] repeated;
+    private final boolean[] uncertain;
+    private final long[] fingerprints;
+    private final long[] checksums;
+
+    private static final long CHECKSUM_SEED = 0xBB67AE8584CAA73BL;
+
+    // Values seen by each signal, dropped once the signal repeats one
+    private final SeenValues[] seen;
+
+    // Scratch space for the words of signals wider than 64 bits
+    private long[] aval = new long[2];
+    private long[] bval = new long[2];
+
+    /**
+     Constructs a detector for the signals of a VCD file.
+     @author Matthew Hicks
+     @param pVCD The file whose values will be read.
+     @throws java.io.IOException if the symbol table cannot be read
+    */
+    public CounterDetector(VCD pVCD)throws IOException
+    {
+        signals = new Signal[pVCD.getSignalCount()];
+        for(int index = 0; index < signals.length; ++index)
+            signals[index] = pVCD.getSignal(index);
+
+        updates = new long[signals.length];
+        repeated = new boolean[signals.length];
+        uncertain = new boolean[signals.length];
+        fingerprints = new long[signals.length];
+        Arrays.fill(fingerprints, SignalHistory.FINGERPRINT_SEED);
+        checksums = new long[signals.length];
+        Arrays.fill(checksums, CHECKSUM_SEED);
+        seen = new SeenValues[signals.length];
+    }
+
+    /**
+     Records a value update of a signal.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @param pAval The aval bits of the new value.
+     @param pBval The bval bits of the new value.
+     @param pTime Time of the update.
+    */
+    public void valueChanged(int pIndex, long pAval, long pBval, long pTime)
+    {
+        Signal sig = signals[pIndex];
+        int width = sig.getWidth();
+        boolean real = sig.getType() == SignalType.real;
+
+        ++updates[pIndex];
+
+        // Fold the update into the fingerprint and hash the value on its own
+        long fingerprint = SignalHistory.fold(fingerprints[pIndex], pTime);
+        long checksum = check(checksums[pIndex], pTime);
+        long hash;
+        long upperHash = SignalHistory.FINGERPRINT_SEED;
+        boolean wideXZ = false;
+        if(width > 64 && !real)
+        {
+            int words = ValueCodec.wordsFor(width);
+            if(aval.length < words)
+            {
+                aval = new long[words];
+                bval = new long[words];
+            }
+            sig.copyValue(aval, bval);
+
+            hash = SignalHistory.FINGERPRINT_SEED;
+            for(int word = 0; word < words; ++word)
+            {
+                int bits = Math.min(64, width - (word << 6));
+                fingerprint = SignalHistory.foldWord(fingerprint, aval[word], bval[word], bits, false);
+                checksum = checkWord(checksum, aval[word], bval[word], bits, false);
+                hash = SignalHistory.foldWord(hash, aval[word], bval[word], bits, false);
+                if(word > 0)
+                    upperHash = SignalHistory.foldWord(upperHash, aval[word], 0, bits, false);
+                wideXZ |= bval[word] != 0;
+            }
+        }
+        else
+        {
+            fingerprint = SignalHistory.foldWord(fingerprint, pAval, pBval, Math.min(64, width), real);
+            checksum = checkWord(checksum, pAval, pBval, Math.min(64, width), real);
+            hash = SignalHistory.foldWord(SignalHistory.FINGERPRINT_SEED, pAval, pBval, Math.min(64, width), real);
+        }
+        fingerprints[pIndex] = fingerprint;
+        checksums[pIndex] = checksum;
+
+        if(repeated[pIndex])
+            return;
+
+        if(seen[pIndex] == null)
+            seen[pIndex] = new SeenValues(width);
+
+        int state;
+        if(width > 64 && !real && !wideXZ)
+            state = seen[pIndex].addWide(upperHash, aval[0]);
+        else if(width <= 64 && !real && (pBval & mask(width)) == 0)
+            state = seen[pIndex].addBits(pAval & mask(width));
+        else
+            state = seen[pIndex].addHash(hash);
+
+        if(state == SeenValues.SEEN)
+        {
+            repeated[pIndex] = true;
+            seen[pIndex] = null;
+        }
+        else if(state == SeenValues.MAYBE_SEEN)
+        {
+            uncertain[pIndex] = true;
+        }
+    }
+
+    /**
+     Does nothing; updates are recorded as they arrive.
+     @author Matthew Hicks
+     @param pTime Unused.
+     @param pDirty Unused.
+     @param pDirtyCount Unused.
+    */
+    public void timestepEnd(long pTime, int[] pDirty, int pDirtyCount)
+    {
+    }
+
+    /**
+     Returns the number of signals the detector covers.
+     @author Matthew Hicks
+     @return Number of signals.
+    */
+    public int getSignalCount()
+    {
+        return signals.length;
+    }
+
+    /**
+     Returns the number of value updates of a signal.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return Number of updates.
+    */
+    public long getUpdates(int pIndex)
+    {
+        return updates[pIndex];
+    }
+
+    /**
+     Returns true if a signal had some value more than once.  Values with x
+     or z bits, and reals, are compared by a 64-bit hash; all other values
+     are compared exactly.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return true if a value was repeated.
+    */
+    public boolean hasRepeatedValue(int pIndex)
+    {
+        return repeated[pIndex];
+    }
+    
+    /**
+     Returns true if a signal that has not been found to repeat a value had
+     so many distinct values that some could only be checked approximately,
+     and one of them may have been a repeat.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return true if the signal may have repeated a value.
+    */
+    public boolean mayHaveRepeatedValue(int pIndex)
+    {
+        return !repeated[pIndex] && uncertain[pIndex];
+    }
+
+    /**
+     Returns true if a signal was updated fewer than two times.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return true if the signal is constant.
+    */
+    public boolean isConstant(int pIndex)
+    {
+        return updates[pIndex] < 2;
+    }
+
+    /**
+     Returns true if a signal had every value that its width allows, each
+     one once, so it can be explained without being a counter.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return true if the signal is fully expressed.
+    */
+    public boolean isFullyExpressed(int pIndex)
+    {
+        int width = signals[pIndex].getWidth();
+        return !repeated[pIndex] && signals[pIndex].getType() != SignalType.real && width < 63 && updates[pIndex] == 1L << width;
+    }
+
+    /**
+     Returns the fingerprint of the (time, value) updates of a signal, which
+     is the fingerprint a {@link SignalHistory} of the signal would have.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return The fingerprint.
+    */
+    public long getFingerprint(int pIndex)
+    {
+        return fingerprints[pIndex];
+    }
+
+    /**
+     Returns a second fingerprint of the (time, value) updates of a signal,
+     hashed independently of {@link #getFingerprint}.  Signals whose
+     fingerprints and second fingerprints both match are taken to be
+     identical.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @return The second fingerprint.
+    */
+    public long getChecksum(int pIndex)
+    {
+        return checksums[pIndex];
+    }
+
+    // Folds one word of a value into a second fingerprint, keeping the same
+    // bits as SignalHistory.foldWord but mixing them differently
+    private static long checkWord(long pHash, long pAval, long pBval, int pBits, boolean pReal)
+    {
+        if(pReal)
+            return check(pHash, pAval);
+
+        return check(check(pHash, pAval & mask(pBits)), pBval & mask(pBits));
+    }
+
+    private static long check(long pHash, long pWord)
+    {
+        long hash = Long.rotateLeft(pHash + pWord * 0xC2B2AE3D27D4EB4FL, 31) * 0x165667B19E3779F9L;
+        return hash ^ (hash >>> 32);
+    }
+
+    private static long mask(int pWidth)
+    {
+        return pWidth >= 64 ? -1L : (1L << Math.max(1, pWidth)) - 1;
+    }
+}
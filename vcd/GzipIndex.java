@@ -0,0 +1,543 @@
+package vcd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ GzipIndex is a sidecar file, stored next to a gzipped VCD file, that caches
+ facts about the VCD file that otherwise take a full decompression to learn.
+ The index is stamped with the gzip trailer (CRC-32 and length of the
+ uncompressed data) along with the size and modification time of the
+ gzipped file, so an index left over from a different dump is ignored.
+
+ An index saved by {@link VCD#getLastTime} holds only those facts.  Once
+ built (see {@link VCD#buildIndex}), the index also holds inflate checkpoints taken every few
+ megabytes of uncompressed data: the bit offset of a deflate block and the
+ 32 KB of output before it, which is everything needed to resume
+ decompressing there (see {@link GzipInflater}).  Each checkpoint is mapped
+ to the first timespec after it, so any offset or time in the VCD file can
+ be reached by decompressing at most one checkpoint's worth of data.  Each
+ checkpoint also keeps a snapshot of every signal's value just before that
+ timespec, as VCD value changes under timespecs of the time each signal was
+ last updated, so the state of the design at any time can be rebuilt the
+ same way.
+
+ @author Matthew Hicks
+ @see VCD
+*/
+class GzipIndex implements GzipInflater.Checkpointer
+{
+    private static final String SUFFIX = ".idx";
+    private static final int MAGIC = 0x56434449;
+    private static final int VERSION = 4;
+
+    // Identifies the gzipped file that this index belongs to
+    private final long fileLength;
+    private final long lastModified;
+    private final long trailer;
+
+    // Cached facts about the uncompressed VCD
+    private long lastTime = -1;
+    private long headerEndOffset = -1;
+    private long initialValuesOffset = -1;
+    private long valuesOffset = -1;
+
+    // Inflate checkpoints in file order: where the deflate block starts (in
+    // bits), how much output comes before it, the first timespec after it
+    // and that timespec's offset (-1 if none), the deflated window, and the
+    // deflated snapshot of signal values at that timespec
+    private long[] checkpointBits = new long[16];
+    private long[] checkpointOffsets = new long[16];
+    private long[] checkpointTimes = new long[16];
+    private long[] checkpointTimeOffsets = new long[16];
+    private byte[][] checkpointWindows = new byte[16][];
+    private byte[][] checkpointSnapshots = new byte[16][];
+    private int checkpointCount = 0;
+
+    // While building, the uncompressed bytes between checkpoints and the
+    // first checkpoint that has not seen a timespec yet
+    private long checkpointSpacing = 0;
+    private int untimedCheckpoint = 0;
+
+    private GzipIndex(long pFileLength, long pLastModified, long pTrailer)
+    {
+        fileLength = pFileLength;
+        lastModified = pLastModified;
+        trailer = pTrailer;
+    }
+
+    /**
+     Creates an empty index stamped for the current contents of the passed
+     gzipped VCD file.
+     @author Matthew Hicks
+     @param pVcdFile Name of a .vcd.gz file.
+     @return An index with nothing cached yet.
+     @throws java.io.IOException if the file cannot be read
+    */
+    static GzipIndex create(String pVcdFile)throws IOException
+    {
+        File file = new File(pVcdFile);
+        return new GzipIndex(file.length(), file.lastModified(), readTrailer(file));
+    }
+
+    /**
+     Loads the sidecar index of the passed gzipped VCD file.
+     @author Matthew Hicks
+     @param pVcdFile Name of a .vcd.gz file.
+     @return The index, or null if there is no index or it is out of date.
+    */
+    static GzipIndex load(String pVcdFile)
+    {
+        File sidecar = new File(pVcdFile + SUFFIX);
+        if(!sidecar.isFile())
+            return null;
+
+        try
+        {
+            GzipIndex current = create(pVcdFile);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+            try
+            {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                    return null;
+                if(in.readLong() != current.fileLength || in.readLong() != current.lastModified || in.readLong() != current.trailer)
+                    return null;
+
+                current.lastTime = in.readLong();
+                current.headerEndOffset = in.readLong();
+                current.initialValuesOffset = in.readLong();
+                current.valuesOffset = in.readLong();
+
+                int count = in.readInt();
+                for(int index = 0; index < count; ++index)
+                {
+                    long bits = in.readLong();
+                    long offset = in.readLong();
+                    long time = in.readLong();
+                    long timeOffset = in.readLong();
+                    byte[] window = new byte[in.readInt()];
+                    in.readFully(window);
+                    byte[] snapshot = new byte[in.readInt()];
+                    in.readFully(snapshot);
+
+                    current.addCheckpoint(bits, offset, window);
+                    current.checkpointTimes[index] = time;
+                    current.checkpointTimeOffsets[index] = timeOffset;
+                    current.checkpointSnapshots[index] = snapshot;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            return current;
+        }
+        catch(IOException ioe)
+        {
+            // A broken index is as good as no index
+            return null;
+        }
+    }
+
+    /**
+     Writes this index next to the passed gzipped VCD file.
+     @author Matthew Hicks
+     @param pVcdFile Name of the .vcd.gz file this index describes.
+     @throws java.io.IOException if the sidecar cannot be written
+    */
+    void save(String pVcdFile)throws IOException
+    {
+        // Written beside the sidecar and renamed into place, so an
+        // interrupted run never leaves a partial index behind
+        File sidecar = new File(pVcdFile + SUFFIX).getAbsoluteFile();
+        File temp = File.createTempFile(sidecar.getName(), ".tmp", sidecar.getParentFile());
+        try
+        {
+            write(temp);
+            Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    // Writes the stamp, the cached facts, and every checkpoint to pFile
+    private void write(File pFile)throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pFile)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeLong(trailer);
+            out.writeLong(lastTime);
+            out.writeLong(headerEndOffset);
+            out.writeLong(initialValuesOffset);
+            out.writeLong(valuesOffset);
+
+            out.writeInt(checkpointCount);
+            for(int index = 0; index < checkpointCount; ++index)
+            {
+                out.writeLong(checkpointBits[index]);
+                out.writeLong(checkpointOffsets[index]);
+                out.writeLong(checkpointTimes[index]);
+                out.writeLong(checkpointTimeOffsets[index]);
+                out.writeInt(checkpointWindows[index].length);
+                out.write(checkpointWindows[index]);
+                out.writeInt(checkpointSnapshots[index].length);
+                out.write(checkpointSnapshots[index]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     Returns the last timespec of the VCD file.
+     @author Matthew Hicks
+     @return A time in the simulator's timescale or -1 if not known.
+    */
+    long getLastTime()
+    {
+        return lastTime;
+    }
+
+    /**
+     Records the last timespec of the VCD file.
+     @author Matthew Hicks
+     @param pTime A time in the simulator's timescale.
+    */
+    void setLastTime(long pTime)
+    {
+        lastTime = pTime;
+    }
+
+    /**
+     Records the offsets of the sections of the uncompressed VCD file.
+     @author Matthew Hicks
+     @param pHeaderEnd Offset of the line after $enddefinitions.
+     @param pInitialValues Offset of the line after $dumpvars.
+     @param pValues Offset of the times and values section.
+    */
+    void setSections(long pHeaderEnd, long pInitialValues, long pValues)
+    {
+        headerEndOffset = pHeaderEnd;
+        initialValuesOffset = pInitialValues;
+        valuesOffset = pValues;
+    }
+
+    /**
+     Returns the offset of the line after $enddefinitions.
+     @author Matthew Hicks
+     @return An uncompressed offset or -1 if not known.
+    */
+    long getHeaderEndOffset()
+    {
+        return headerEndOffset;
+    }
+
+    /**
+     Returns the offset of the line after $dumpvars.
+     @author Matthew Hicks
+     @return An uncompressed offset or -1 if not known.
+    */
+    long getInitialValuesOffset()
+    {
+        return initialValuesOffset;
+    }
+
+    /**
+     Returns the offset of the times and values section.
+     @author Matthew Hicks
+     @return An uncompressed offset or -1 if not known.
+    */
+    long getValuesOffset()
+    {
+        return valuesOffset;
+    }
+
+    /**
+     Sets how often checkpoints are taken while this index is passed to a
+     {@link GzipInflater} that decompresses the file from its start.
+     @author Matthew Hicks
+     @param pBytes Uncompressed bytes between checkpoints.
+    */
+    void setCheckpointSpacing(long pBytes)
+    {
+        checkpointSpacing = pBytes;
+    }
+
+    /**
+     Takes a checkpoint at the current deflate block if enough output has
+     been decoded since the last one.
+     @author Matthew Hicks
+     @param pInflater The decompressor, positioned at a block.
+    */
+    @Override
+    public void blockStart(GzipInflater pInflater)
+    {
+        long last = checkpointCount == 0 ? 0 : checkpointOffsets[checkpointCount - 1];
+        if(checkpointSpacing <= 0 || pInflater.getOutOffset() - last < checkpointSpacing)
+            return;
+
+        addCheckpoint(pInflater.getBitOffset(), pInflater.getOutOffset(), deflate(pInflater.copyWindow()));
+    }
+
+    /**
+     Returns true if the timespec at the passed offset is the first one
+     after a checkpoint, i.e., if {@link GzipIndex#addTime} needs a snapshot.
+     @author Matthew Hicks
+     @param pOffset Uncompressed offset of a timespec.
+     @return true if a checkpoint is waiting for this timespec.
+    */
+    boolean needsSnapshot(long pOffset)
+    {
+        return untimedCheckpoint < checkpointCount && checkpointOffsets[untimedCheckpoint] <= pOffset;
+    }
+
+    /**
+     Maps the checkpoints before the passed timespec, that are not mapped
+     yet, to it.  Timespecs must be passed in file order.
+     @author Matthew Hicks
+     @param pTime The time of the timespec.
+     @param pOffset Uncompressed offset of the timespec.
+     @param pSnapshot Value changes, in VCD format, that set every signal to
+     its value just before the timespec, each under a timespec of the time
+     the signal was last updated.
+    */
+    void addTime(long pTime, long pOffset, byte[] pSnapshot)
+    {
+        byte[] snapshot = deflate(pSnapshot);
+        while(needsSnapshot(pOffset))
+        {
+            checkpointTimes[untimedCheckpoint] = pTime;
+            checkpointTimeOffsets[untimedCheckpoint] = pOffset;
+            checkpointSnapshots[untimedCheckpoint] = snapshot;
+            ++untimedCheckpoint;
+        }
+    }
+
+    /**
+     Returns the number of inflate checkpoints in this index.
+     @author Matthew Hicks
+     @return Number of checkpoints; 0 if the index was never built.
+    */
+    int getCheckpointCount()
+    {
+        return checkpointCount;
+    }
+
+    /**
+     Returns the last checkpoint whose first timespec is no later than the
+     passed time.  Reading from that timespec, after restoring the
+     checkpoint's snapshot, misses no change at or after pTime.
+     @author Matthew Hicks
+     @param pTime A time in the simulator's timescale.
+     @return A checkpoint number or -1 if every checkpoint is later.
+    */
+    int findCheckpoint(long pTime)
+    {
+        int result = -1;
+        for(int low = 0, high = checkpointCount - 1; low <= high; )
+        {
+            int middle = (low + high) >>> 1;
+            if(checkpointTimes[middle] != -1 && checkpointTimes[middle] <= pTime)
+            {
+                result = middle;
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     Returns the first timespec after a checkpoint.
+     @author Matthew Hicks
+     @param pCheckpoint A checkpoint number.
+     @return A time in the simulator's timescale.
+    */
+    long getCheckpointTime(int pCheckpoint)
+    {
+        return checkpointTimes[pCheckpoint];
+    }
+
+    /**
+     Returns the offset of the first timespec after a checkpoint.
+     @author Matthew Hicks
+     @param pCheckpoint A checkpoint number.
+     @return An uncompressed offset.
+    */
+    long getCheckpointTimeOffset(int pCheckpoint)
+    {
+        return checkpointTimeOffsets[pCheckpoint];
+    }
+
+    /**
+     Opens the snapshot of signal values taken at a checkpoint.
+     @author Matthew Hicks
+     @param pCheckpoint A checkpoint number.
+     @return A stream of value changes in VCD format.
+    */
+    InputStream openSnapshot(int pCheckpoint)
+    {
+        return new InflaterInputStream(new ByteArrayInputStream(checkpointSnapshots[pCheckpoint]));
+    }
+
+    /**
+     Opens the uncompressed VCD file at the passed offset.  Decompression
+     starts at the last checkpoint at or before the offset, or at the start
+     of the file if there is none.
+     @author Matthew Hicks
+     @param pVcdFile Name of the .vcd.gz file this index describes.
+     @param pOffset Uncompressed offset to start reading at.
+     @return A stream whose first byte is the one at pOffset.
+     @throws java.io.IOException if the file cannot be read
+    */
+    InputStream open(String pVcdFile, long pOffset)throws IOException
+    {
+        int checkpoint = Arrays.binarySearch(checkpointOffsets, 0, checkpointCount, pOffset);
+        if(checkpoint < 0)
+            checkpoint = -checkpoint - 2;
+
+        InputStream in;
+        long skip;
+        if(checkpoint < 0)
+        {
+            in = new GZIPInputStream(new FileInputStream(pVcdFile), 1 << 16);
+            skip = pOffset;
+        }
+        else
+        {
+            in = new GzipInflater(pVcdFile, checkpointBits[checkpoint], checkpointOffsets[checkpoint], inflate(checkpointWindows[checkpoint]));
+            skip = pOffset - checkpointOffsets[checkpoint];
+        }
+
+        while(skip > 0)
+        {
+            long skipped = in.skip(skip);
+            if(skipped <= 0)
+            {
+                in.close();
+                throw new EOFException("ERROR: " + pVcdFile + " ends before offset " + pOffset);
+            }
+            skip -= skipped;
+        }
+
+        return in;
+    }
+
+    private void addCheckpoint(long pBits, long pOffset, byte[] pWindow)
+    {
+        if(checkpointCount == checkpointBits.length)
+        {
+            checkpointBits = Arrays.copyOf(checkpointBits, checkpointCount << 1);
+            checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpointCount << 1);
+            checkpointTimes = Arrays.copyOf(checkpointTimes, checkpointCount << 1);
+            checkpointTimeOffsets = Arrays.copyOf(checkpointTimeOffsets, checkpointCount << 1);
+            checkpointWindows = Arrays.copyOf(checkpointWindows, checkpointCount << 1);
+            checkpointSnapshots = Arrays.copyOf(checkpointSnapshots, checkpointCount << 1);
+        }
+
+        checkpointBits[checkpointCount] = pBits;
+        checkpointOffsets[checkpointCount] = pOffset;
+        checkpointTimes[checkpointCount] = -1;
+        checkpointTimeOffsets[checkpointCount] = -1;
+        checkpointWindows[checkpointCount] = pWindow;
+        checkpointSnapshots[checkpointCount] = new byte[0];
+        ++checkpointCount;
+    }
+
+    // Windows and snapshots are mostly VCD text, so they are stored deflated
+    private static byte[] deflate(byte[] pData)
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(pData);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pData.length >>> 2);
+        byte[] buf = new byte[1 << 13];
+        while(!deflater.finished())
+            out.write(buf, 0, deflater.deflate(buf));
+        deflater.end();
+
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] pData)throws IOException
+    {
+        Inflater inflater = new Inflater();
+        inflater.setInput(pData);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(GzipInflater.WINDOW_SIZE);
+        byte[] buf = new byte[1 << 13];
+        try
+        {
+            while(!inflater.finished())
+            {
+                int count = inflater.inflate(buf);
+                if(count == 0 && inflater.needsInput())
+                    throw new IOException("ERROR: Truncated checkpoint window in gzip index");
+                out.write(buf, 0, count);
+            }
+        }
+        catch(DataFormatException dfe)
+        {
+            throw new IOException("ERROR: Corrupt checkpoint window in gzip index", dfe);
+        }
+        finally
+        {
+            inflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    // The last 8 bytes of a gzip file hold the CRC-32 and uncompressed size
+    private static long readTrailer(File pFile)throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(pFile, "r");
+        try
+        {
+            if(raf.length() < 8)
+                throw new IOException("ERROR: " + pFile + " is too short to be gzipped");
+
+            raf.seek(raf.length() - 8);
+            return raf.readLong();
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package vcd;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ GzipInflater is a gzip decompressor, written in Java, that can start in
+ the middle of a compressed file.  java.util.zip cannot be told where
+ deflate blocks begin or be resumed from an arbitrary bit, so random access
+ to gzipped VCD files needs a decompressor that exposes both.  While
+ decompressing, GzipInflater reports the start of every deflate block to a
+ {@link Checkpointer}, which may save the bit offset and the 32 KB window of
+ preceding output.  A later GzipInflater can then resume from that saved
+ state instead of decompressing the file from its first byte.
+
+ Concatenated gzip members are decompressed one after another.  CRCs are
+ not checked; sequential reads of whole files should use
+ java.util.zip.GZIPInputStream, which does.
+
+ @author Matthew Hicks
+ @see GzipIndex
+*/
+class GzipInflater extends InputStream
+{
+    /**
+     Checkpointer is told about the start of each deflate block.
+     @author Matthew Hicks
+    */
+    interface Checkpointer
+    {
+        /**
+         Called before the header of each deflate block is read.
+         @author Matthew Hicks
+         @param pInflater The decompressor, positioned at the block.
+        */
+        void blockStart(GzipInflater pInflater);
+    }
+
+    static final int WINDOW_SIZE = 1 << 15;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    // Output is handed out in batches well under the window size
+    private static final int BATCH_SIZE = 1 << 14;
+
+    // Decoder states
+    private static final int MEMBER_HEADER = 0;
+    private static final int BLOCK_HEADER = 1;
+    private static final int STORED = 2;
+    private static final int HUFFMAN = 3;
+    private static final int MEMBER_TRAILER = 4;
+    private static final int DONE = 5;
+
+    // Deflate constants (RFC 1951)
+    private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DIST_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DIST_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final HuffmanTable FIXED_LITLEN;
+    private static final HuffmanTable FIXED_DIST;
+    static
+    {
+        int[] lengths = new int[288];
+        for(int symbol = 0; symbol < 288; ++symbol)
+            lengths[symbol] = symbol < 144 ? 8 : symbol < 256 ? 9 : symbol < 280 ? 7 : 8;
+        FIXED_LITLEN = new HuffmanTable(lengths, 288);
+
+        int[] distLengths = new int[30];
+        java.util.Arrays.fill(distLengths, 5);
+        FIXED_DIST = new HuffmanTable(distLengths, 30);
+    }
+
+    private final InputStream in;
+    private final Checkpointer checkpointer;
+
+    // Compressed input; inputOffset is the file offset of input[0]
+    private final byte[] input = new byte[1 << 16];
+    private int inputPos = 0;
+    private int inputLimit = 0;
+    private long inputOffset;
+    private boolean inputDone = false;
+
+    // Bits read from the input but not yet used, LSB first
+    private long bitBuf = 0;
+    private int bitCount = 0;
+
+    // The last 32 KB of output; outTotal bytes have been written to it and
+    // the last pending of them have not been handed out yet
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long outTotal;
+    private int pending = 0;
+
+    private int state;
+    private boolean finalBlock = false;
+    private int storedLeft = 0;
+    private HuffmanTable litlen;
+    private HuffmanTable dist;
+
+    /**
+     Constructs a decompressor that starts at the beginning of a gzip file.
+     @author Matthew Hicks
+     @param pGzipFile Name of the gzip file.
+     @param pCheckpointer Told about every deflate block, or null.
+     @throws java.io.IOException if the file cannot be opened
+    */
+    GzipInflater(String pGzipFile, Checkpointer pCheckpointer)throws IOException
+    {
+        in = new FileInputStream(pGzipFile);
+        checkpointer = pCheckpointer;
+        inputOffset = 0;
+        outTotal = 0;
+        state = MEMBER_HEADER;
+    }
+
+    /**
+     Constructs a decompressor that resumes at the start of a deflate block
+     that was reported to a {@link Checkpointer}.
+     @author Matthew Hicks
+     @param pGzipFile Name of the gzip file.
+     @param pBitOffset Offset of the block in the file, in bits.
+     @param pOutOffset Number of uncompressed bytes before the block.
+     @param pWindow Up to the last 32 KB of output before the block.
+     @throws java.io.IOException if the file cannot be read
+    */
+    GzipInflater(String pGzipFile, long pBitOffset, long pOutOffset, byte[] pWindow)throws IOException
+    {
+        FileInputStream file = new FileInputStream(pGzipFile);
+        file.getChannel().position(pBitOffset >>> 3);
+        in = file;
+        checkpointer = null;
+        inputOffset = pBitOffset >>> 3;
+        outTotal = pOutOffset;
+        state = BLOCK_HEADER;
+
+        for(int index = 0; index < pWindow.length; ++index)
+            window[(int)((pOutOffset - pWindow.length + index) & WINDOW_MASK)] = pWindow[index];
+
+        dropBits((int)(pBitOffset & 7));
+    }
+
+    /**
+     Returns the offset, in bits from the start of the file, of the next
+     compressed bit to be read.
+     @author Matthew Hicks
+     @return The bit offset.
+    */
+    long getBitOffset()
+    {
+        return ((inputOffset + inputPos) << 3) - bitCount;
+    }
+
+    /**
+     Returns the number of uncompressed bytes decoded so far, including any
+     not yet handed out by read.
+     @author Matthew Hicks
+     @return The uncompressed offset of the next byte to be decoded.
+    */
+    long getOutOffset()
+    {
+        return outTotal;
+    }
+
+    /**
+     Returns a copy of the last (up to) 32 KB of decoded output.
+     @author Matthew Hicks
+     @return The window, oldest byte first.
+    */
+    byte[] copyWindow()
+    {
+        int length = (int)Math.min(outTotal, WINDOW_SIZE);
+        byte[] copy = new byte[length];
+        for(int index = 0; index < length; ++index)
+            copy[index] = window[(int)((outTotal - length + index) & WINDOW_MASK)];
+
+        return copy;
+    }
+
+    @Override
+    public int read()throws IOException
+    {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == 1 ? (one[0] & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] pBuf, int pOff, int pLen)throws IOException
+    {
+        if(pLen == 0)
+            return 0;
+
+        while(pending == 0)
+        {
+            if(state == DONE)
+                return -1;
+
+            decode();
+        }
+
+        int count = Math.min(pLen, pending);
+        long start = outTotal - pending;
+        for(int index = 0; index < count; ++index)
+            pBuf[pOff + index] = window[(int)((start + index) & WINDOW_MASK)];
+
+        pending -= count;
+        return count;
+    }
+
+    @Override
+    public void close()throws IOException
+    {
+        in.close();
+    }
+
+    // Decodes until a batch of output is pending or the state changes
+    private void decode()throws IOException
+    {
+        switch(state)
+        {
+            case MEMBER_HEADER:
+                readMemberHeader();
+                break;
+            case BLOCK_HEADER:
+                if(checkpointer != null)
+                    checkpointer.blockStart(this);
+                readBlockHeader();
+                break;
+            case STORED:
+                while(storedLeft > 0 && pending < BATCH_SIZE)
+                {
+                    output(bits(8));
+                    --storedLeft;
+                }
+                if(storedLeft == 0)
+                    endBlock();
+                break;
+            case HUFFMAN:
+                decodeHuffman();
+                break;
+            case MEMBER_TRAILER:
+                // CRC-32 and size; then either another member or the end
+                dropBits(bitCount & 7);
+                bits(32);
+                bits(32);
+                state = moreInput() ? MEMBER_HEADER : DONE;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void readMemberHeader()throws IOException
+    {
+        if(bits(8) != 0x1f || bits(8) != 0x8b || bits(8) != 8)
+            throw new IOException("ERROR: Not a gzip file with deflate data");
+
+        int flags = bits(8);
+        bits(32);
+        bits(16);
+
+        if((flags & 4) != 0)
+        {
+            int extra = bits(16);
+            while(extra-- > 0)
+                bits(8);
+        }
+        if((flags & 8) != 0)
+            while(bits(8) != 0)
+                ;
+        if((flags & 16) != 0)
+            while(bits(8) != 0)
+                ;
+        if((flags & 2) != 0)
+            bits(16);
+
+        state = BLOCK_HEADER;
+    }
+
+    private void readBlockHeader()throws IOException
+    {
+        finalBlock = bits(1) == 1;
+        int type = bits(2);
+        switch(type)
+        {
+            case 0:
+                dropBits(bitCount & 7);
+                storedLeft = bits(16);
+                if((bits(16) ^ 0xFFFF) != storedLeft)
+                    throw new IOException("ERROR: Corrupt stored block in gzip data");
+                state = STORED;
+                if(storedLeft == 0)
+                    endBlock();
+                break;
+            case 1:
+                litlen = FIXED_LITLEN;
+                dist = FIXED_DIST;
+                state = HUFFMAN;
+                break;
+            case 2:
+                readDynamicTables();
+                state = HUFFMAN;
+                break;
+            default:
+                throw new IOException("ERROR: Invalid deflate block type in gzip data");
+        }
+    }
+
+    private void readDynamicTables()throws IOException
+    {
+        int litlenCount = bits(5) + 257;
+        int distCount = bits(5) + 1;
+        int codeLengthCount = bits(4) + 4;
+
+        int[] codeLengthLengths = new int[19];
+        for(int index = 0; index < codeLengthCount; ++index)
+            codeLengthLengths[CODE_LENGTH_ORDER[index]] = bits(3);
+        HuffmanTable codeLengths = new HuffmanTable(codeLengthLengths, 19);
+
+        int[] lengths = new int[litlenCount + distCount];
+        for(int index = 0; index < lengths.length; )
+        {
+            int symbol = decodeSymbol(codeLengths);
+            if(symbol < 16)
+            {
+                lengths[index++] = symbol;
+                continue;
+            }
+
+            int repeat;
+            int value = 0;
+            if(symbol == 16)
+            {
+                if(index == 0)
+                    throw new IOException("ERROR: Corrupt code lengths in gzip data");
+                value = lengths[index - 1];
+                repeat = 3 + bits(2);
+            }
+            else if(symbol == 17)
+            {
+                repeat = 3 + bits(3);
+            }
+            else
+            {
+                repeat = 11 + bits(7);
+            }
+
+            if(index + repeat > lengths.length)
+                throw new IOException("ERROR: Corrupt code lengths in gzip data");
+            while(repeat-- > 0)
+                lengths[index++] = value;
+        }
+
+        litlen = new HuffmanTable(java.util.Arrays.copyOfRange(lengths, 0, litlenCount), litlenCount);
+        dist = new HuffmanTable(java.util.Arrays.copyOfRange(lengths, litlenCount, lengths.length), distCount);
+    }
+
+    private void decodeHuffman()throws IOException
+    {
+        while(pending < BATCH_SIZE)
+        {
+            int symbol = decodeSymbol(litlen);
+            if(symbol < 256)
+            {
+                output(symbol);
+            }
+            else if(symbol == 256)
+            {
+                endBlock();
+                return;
+            }
+            else
+            {
+                symbol -= 257;
+                if(symbol >= LENGTH_BASE.length)
+                    throw new IOException("ERROR: Invalid length code in gzip data");
+                int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+
+                int distSymbol = decodeSymbol(dist);
+                if(distSymbol >= DIST_BASE.length)
+                    throw new IOException("ERROR: Invalid distance code in gzip data");
+                int distance = DIST_BASE[distSymbol] + bits(DIST_EXTRA[distSymbol]);
+                if(distance > outTotal)
+                    throw new IOException("ERROR: Distance too far back in gzip data");
+
+                for(int index = 0; index < length; ++index)
+                    output(window[(int)((outTotal - distance) & WINDOW_MASK)]);
+            }
+        }
+    }
+
+    private void endBlock()
+    {
+        state = finalBlock ? MEMBER_TRAILER : BLOCK_HEADER;
+    }
+
+    private void output(int pByte)
+    {
+        window[(int)(outTotal & WINDOW_MASK)] = (byte)pByte;
+        ++outTotal;
+        ++pending;
+    }
+
+    private int decodeSymbol(HuffmanTable pTable)throws IOException
+    {
+        need(pTable.maxLength);
+        int entry = pTable.entries[(int)(bitBuf & ((1 << pTable.maxLength) - 1))];
+        int length = entry & 15;
+        if(length == 0 || length > bitCount)
+            throw new IOException("ERROR: Invalid Huffman code in gzip data");
+
+        dropBits(length);
+        return entry >>> 4;
+    }
+
+    // Returns the next pCount (0 to 32) bits
+    private int bits(int pCount)throws IOException
+    {
+        if(pCount == 0)
+            return 0;
+
+        need(pCount);
+        if(bitCount < pCount)
+            throw new IOException("ERROR: Truncated gzip data");
+
+        int result = (int)(bitBuf & ((1L << pCount) - 1));
+        dropBits(pCount);
+        return result;
+    }
+
+    private void dropBits(int pCount)throws IOException
+    {
+        need(pCount);
+        bitBuf >>>= pCount;
+        bitCount -= pCount;
+    }
+
+    // Loads at least pCount bits unless the input ends first
+    private void need(int pCount)throws IOException
+    {
+        while(bitCount < pCount)
+        {
+            if(inputPos == inputLimit && !refill())
+                return;
+
+            bitBuf |= (long)(input[inputPos++] & 0xFF) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private boolean moreInput()throws IOException
+    {
+        return bitCount > 0 || inputPos < inputLimit || refill();
+    }
+
+    private boolean refill()throws IOException
+    {
+        if(inputDone)
+            return false;
+
+        inputOffset += inputLimit;
+        inputPos = 0;
+        inputLimit = 0;
+
+        int read = in.read(input, 0, input.length);
+        if(read <= 0)
+        {
+            inputDone = true;
+            return false;
+        }
+
+        inputLimit = read;
+        return true;
+    }
+
+    // Canonical Huffman code as a table indexed by the next maxLength bits
+    // Each entry is (symbol << 4) | code length, 0 for unused codes
+    private static final class HuffmanTable
+    {
+        final int maxLength;
+        final short[] entries;
+
+        HuffmanTable(int[] pLengths, int pCount)
+        {
+            int max = 1;
+            int[] counts = new int[16];
+            for(int symbol = 0; symbol < pCount; ++symbol)
+            {
+                counts[pLengths[symbol]]++;
+                max = Math.max(max, pLengths[symbol]);
+            }
+            counts[0] = 0;
+
+            int[] nextCode = new int[16];
+            for(int length = 1, code = 0; length < 16; ++length)
+            {
+                code = (code + counts[length - 1]) << 1;
+                nextCode[length] = code;
+            }
+
+            maxLength = max;
+            entries = new short[1 << max];
+            for(int symbol = 0; symbol < pCount; ++symbol)
+            {
+                int length = pLengths[symbol];
+                if(length == 0)
+                    continue;
+
+                // Deflate sends codes MSB first into an LSB-first stream
+                int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                for(int index = reversed; index < entries.length; index += 1 << length)
+                    entries[index] = (short)((symbol << 4) | length);
+            }
+        }
+    }
+}
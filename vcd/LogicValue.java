@@ -0,0 +1,78 @@
+package vcd;
+
+/**
+ LogicValue is the 4-state value of one bit of a signal.  The ordinal of each
+ value packs its VPI aval bit (bit 0) and bval bit (bit 1): 0 is (0,0), 1 is
+ (1,0), z is (0,1), and x is (1,1).  Vectors use the same encoding with one
+ aval and one bval bit per signal bit.
+
+ @author Matthew Hicks
+ @see Signal#setValue(LogicValue, long)
+*/
+public enum LogicValue
+{
+    ZERO('0'), ONE('1'), Z('z'), X('x');
+
+    private static final LogicValue[] VALUES = values();
+
+    private final char character;
+
+    private LogicValue(char pCharacter)
+    {
+        character = pCharacter;
+    }
+
+    /**
+     Returns the aval bit of this value.
+     @author Matthew Hicks
+     @return 1 for ONE and X, 0 otherwise.
+    */
+    public long getAval()
+    {
+        return ordinal() & 1;
+    }
+
+    /**
+     Returns the bval bit of this value.
+     @author Matthew Hicks
+     @return 1 for Z and X, 0 otherwise.
+    */
+    public long getBval()
+    {
+        return ordinal() >>> 1;
+    }
+
+    /**
+     Returns the character used for this value in VCD files.
+     @author Matthew Hicks
+     @return One of 0, 1, z, or x.
+    */
+    public char toChar()
+    {
+        return character;
+    }
+
+    /**
+     Returns the value with the passed aval and bval bits.
+     @author Matthew Hicks
+     @param pAval The aval bit; only the lowest bit is used.
+     @param pBval The bval bit; only the lowest bit is used.
+     @return The matching value.
+    */
+    public static LogicValue fromBits(long pAval, long pBval)
+    {
+        return VALUES[(int)((pAval & 1) | ((pBval & 1) << 1))];
+    }
+
+    /**
+     Returns the value of a VCD value character.  The extra strengths
+     (l, h) map to 0 and 1 and every other character maps to x.
+     @author Matthew Hicks
+     @param pCharacter A character from a VCD value.
+     @return The matching value.
+    */
+    public static LogicValue fromChar(char pCharacter)
+    {
+        return VALUES[ValueCodec.stateOf(pCharacter)];
+    }
+}
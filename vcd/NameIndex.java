@@ -0,0 +1,288 @@
+package vcd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ NameIndex maps the names declared in the header of a VCD file to their
+ identifier codes (symbols) and back.  It is built once while the header is
+ read (see {@link vcd.VCD#getNameIndex}) and covers every $var declaration,
+ including the ones that reuse the symbol of an earlier declaration and
+ the ones that the signal filter rejects.
+
+ Full names are the path of scopes and the reference name, with any bit
+ select, e.g., "/top/cpu/pc[31:0]"; they can also be looked up without the
+ bit select.  Full names are hashed, so looking one up takes constant time,
+ as does listing the aliases (all the names) of a symbol.  The scopes are
+ also kept as a tree, so the names below a scope, or matching a glob, are
+ found by walking only the scopes that can hold them.
+
+ @author Matthew Hicks
+ @see VCD#getNameIndex
+*/
+public class NameIndex
+{
+    // A scope of the design, with the scopes and names declared directly in it
+    private static final class Scope
+    {
+        final String path;
+        final Scope parent;
+        final LinkedHashMap<String, Scope> children = new LinkedHashMap<String, Scope>();
+        final ArrayList<String> names = new ArrayList<String>();
+
+        Scope(String pPath, Scope pParent)
+        {
+            path = pPath;
+            parent = pParent;
+        }
+    }
+
+    private final Scope root = new Scope("", null);
+    private Scope current = root;
+
+    // Full names, with and without their bit selects, to symbols
+    private final HashMap<String, String> symbols = new HashMap<String, String>();
+
+    // Reference names (e.g., "pc") and types to the symbol of their first
+    // declaration
+    private final HashMap<String, String> references = new HashMap<String, String>();
+
+    // First full name of each symbol, and the later ones of symbols with aliases
+    private final HashMap<String, String> firstNames = new HashMap<String, String>();
+    private final HashMap<String, ArrayList<String>> moreNames = new HashMap<String, ArrayList<String>>();
+
+    private int nameCount = 0;
+
+    /**
+     Enters a scope inside the current one, as a $scope does.
+     @author Matthew Hicks
+     @param pName Name of the scope.
+    */
+    void downScope(String pName)
+    {
+        Scope child = current.children.get(pName);
+        if(child == null)
+        {
+            child = new Scope(current.path + "/" + pName, current);
+            current.children.put(pName, child);
+        }
+        current = child;
+    }
+
+    /**
+     Leaves the current scope, as an $upscope does.
+     @author Matthew Hicks
+    */
+    void upScope()
+    {
+        if(current.parent != null)
+            current = current.parent;
+    }
+
+    /**
+     Records a declaration in the current scope.
+     @author Matthew Hicks
+     @param pReference Reference name of the declaration, e.g., "pc".
+     @param pSlice Bit select of the declaration, e.g., "[31:0]", or "".
+     @param pType Type of the declared signal.
+     @param pSymbol Identifier code of the declaration.
+    */
+    void add(String pReference, String pSlice, SignalType pType, String pSymbol)
+    {
+        String name = current.path + "/" + pReference + pSlice;
+        current.names.add(name);
+        ++nameCount;
+
+        symbols.putIfAbsent(name, pSymbol);
+        if(!pSlice.isEmpty())
+            symbols.putIfAbsent(current.path + "/" + pReference, pSymbol);
+        references.putIfAbsent(pType + " " + pReference, pSymbol);
+
+        if(firstNames.putIfAbsent(pSymbol, name) != null)
+            moreNames.computeIfAbsent(pSymbol, symbol -> new ArrayList<String>(2)).add(name);
+    }
+
+    /**
+     Returns the number of declarations in the index.
+     @author Matthew Hicks
+     @return Number of names.
+    */
+    public int getNameCount()
+    {
+        return nameCount;
+    }
+
+    /**
+     Returns the symbol of a full name.
+     @author Matthew Hicks
+     @param pName Full name, with or without its bit select, e.g.,
+     "/top/cpu/pc[31:0]" or "/top/cpu/pc".
+     @return The symbol, or null if nothing has that name.
+    */
+    public String getSymbol(String pName)
+    {
+        return symbols.get(pName);
+    }
+
+    /**
+     Returns the symbol of the first declaration of a reference name and
+     type, in any scope.
+     @author Matthew Hicks
+     @param pReference Reference name, without its bit select.
+     @param pType Type of the signal.
+     @return The symbol, or null if there is no such declaration.
+    */
+    String getSymbol(String pReference, SignalType pType)
+    {
+        return references.get(pType + " " + pReference);
+    }
+
+    /**
+     Returns every full name declared with a symbol, in header order.
+     Simulators give the same symbol to the names of a net in each scope it
+     passes through.
+     @author Matthew Hicks
+     @param pSymbol The symbol.
+     @return The full names, or an empty list if the symbol is not declared.
+    */
+    public List<String> getAliases(String pSymbol)
+    {
+        String first = firstNames.get(pSymbol);
+        if(first == null)
+            return Collections.emptyList();
+
+        ArrayList<String> more = moreNames.get(pSymbol);
+        if(more == null)
+            return Collections.singletonList(first);
+
+        ArrayList<String> aliases = new ArrayList<String>(more.size() + 1);
+        aliases.add(first);
+        aliases.addAll(more);
+        return aliases;
+    }
+
+    /**
+     Returns the paths of the scopes directly inside a scope.
+     @author Matthew Hicks
+     @param pScope Path of the scope, e.g., "/top/cpu", or "" for the top.
+     @return The paths, in header order, or an empty list if there is no
+     such scope.
+    */
+    public List<String> getChildScopes(String pScope)
+    {
+        Scope scope = findScope(pScope);
+        ArrayList<String> paths = new ArrayList<String>();
+        if(scope != null)
+        {
+            for(Scope child : scope.children.values())
+                paths.add(child.path);
+        }
+
+        return paths;
+    }
+
+    /**
+     Returns the full names declared in a scope and all the scopes below it.
+     @author Matthew Hicks
+     @param pScope Path of the scope, e.g., "/top/cpu", or "" for the top.
+     @return The full names, or an empty list if there is no such scope.
+    */
+    public List<String> getNamesUnder(String pScope)
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        Scope scope = findScope(pScope);
+        if(scope != null)
+            collect(scope, names);
+
+        return names;
+    }
+
+    /**
+     Returns the full names that match a glob, with the syntax of
+     {@link SignalFilter#byGlob}: a '*' matches any characters within one
+     scope, "**" matches across scopes, and '?' matches one character.
+     Scopes are matched one level at a time, down to the first level with a
+     "**", so only the scopes that the glob can reach are visited.
+     @author Matthew Hicks
+     @param pGlob The glob, e.g., "/top/*&#47;pc*".
+     @return The matching full names, in scope order.
+    */
+    public List<String> find(String pGlob)
+    {
+        String glob = pGlob.startsWith("/") ? pGlob : "/" + pGlob;
+        String[] levels = glob.substring(1).split("/", -1);
+
+        // Levels that cross scopes are left null
+        Pattern[] patterns = new Pattern[levels.length];
+        for(int level = 0; level < levels.length; ++level)
+        {
+            if(!levels[level].contains("**"))
+                patterns[level] = Pattern.compile(SignalFilter.globToRegex(levels[level]));
+        }
+
+        ArrayList<String> names = new ArrayList<String>();
+        find(root, patterns, 0, Pattern.compile(SignalFilter.globToRegex(glob)), names);
+        return names;
+    }
+
+    // Matches a scope against one level of a glob; from the first level that
+    // crosses scopes, names are matched against the whole glob
+    private void find(Scope pScope, Pattern[] pLevels, int pLevel, Pattern pWhole, ArrayList<String> pNames)
+    {
+        if(pLevels[pLevel] == null)
+        {
+            ArrayList<String> below = new ArrayList<String>();
+            collect(pScope, below);
+            for(String name : below)
+            {
+                if(pWhole.matcher(name).matches())
+                    pNames.add(name);
+            }
+        }
+        else if(pLevel == pLevels.length - 1)
+        {
+            int start = pScope.path.length() + 1;
+            for(String name : pScope.names)
+            {
+                if(pLevels[pLevel].matcher(name).region(start, name.length()).matches())
+                    pNames.add(name);
+            }
+        }
+        else
+        {
+            for(Map.Entry<String, Scope> child : pScope.children.entrySet())
+            {
+                if(pLevels[pLevel].matcher(child.getKey()).matches())
+                    find(child.getValue(), pLevels, pLevel + 1, pWhole, pNames);
+            }
+        }
+    }
+
+    private Scope findScope(String pScope)
+    {
+        Scope scope = root;
+        for(String level : pScope.split("/"))
+        {
+            if(level.isEmpty())
+                continue;
+
+            scope = scope.children.get(level);
+            if(scope == null)
+                return null;
+        }
+
+        return scope;
+    }
+
+    private static void collect(Scope pScope, ArrayList<String> pNames)
+    {
+        pNames.addAll(pScope.names);
+        for(Scope child : pScope.children.values())
+            collect(child, pNames);
+    }
+}
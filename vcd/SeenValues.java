@@ -0,0 +1,264 @@
+package vcd;
+
+import java.util.Arrays;
+
+/**
+ SeenValues is the set of values that one signal has had, kept in as little
+ memory as the values allow so that every signal of a large dump can have
+ one.  Values of signals 20 bits wide or less, with no x or z bits, are bits
+ of a bitset whose pages are only allocated once a value in them is seen.
+ Wider values with no x or z bits are kept as sorted runs of consecutive
+ values, so a counter takes one run no matter how far it counts; values
+ wider than 64 bits are kept as runs of their low 64 bits, keyed by a
+ 64-bit hash of the bits above them.  Anything else (values with x or z
+ bits, and reals) is kept as a 64-bit hash of the value.
+
+ The runs and hashes are capped.  Values that arrive after a cap is reached
+ go into a fixed-size Bloom filter, which cannot tell a repeated value from
+ a new one that shares its bits, so a value found only in the Bloom filter
+ is reported as {@link #MAYBE_SEEN} rather than as seen.
+
+ @author Matthew Hicks
+ @see CounterDetector
+*/
+final class SeenValues
+{
+    /** The value was not in the set. */
+    static final int NEW = 0;
+
+    /** The value was in the set. */
+    static final int SEEN = 1;
+
+    /** The value was found only in the Bloom filter, so may be new. */
+    static final int MAYBE_SEEN = 2;
+
+    // Widest signal whose values are kept in a bitset
+    static final int BITSET_WIDTH = 20;
+
+    // Bitset pages of 4096 values
+    private static final int PAGE_SHIFT = 12;
+
+    private static final int MAX_RUNS = 1024;
+    private static final int MAX_HASHES = 1024;
+
+    private static final int BLOOM_BITS = 1 << 17;
+    private static final int BLOOM_PROBES = 3;
+
+    private long[][] pages;
+    private int pageWords;
+
+    // Runs sorted by key, then by start; the key is zero for values of 64
+    // bits or less
+    private long[] runKeys = new long[0];
+    private long[] runStarts = new long[0];
+    private long[] runEnds = new long[0];
+    private int runCount = 0;
+
+    // Open addressing; zero marks an empty slot, so a zero hash is stored as one
+    private long[] hashes = new long[0];
+    private int hashCount = 0;
+
+    private long[] bloom = null;
+
+    /**
+     Constructs an empty set for the values of a signal.
+     @author Matthew Hicks
+     @param pWidth Number of bits in the signal.
+    */
+    SeenValues(int pWidth)
+    {
+        if(pWidth <= BITSET_WIDTH)
+        {
+            pages = new long[Math.max(1, (int)((1L << pWidth) >>> PAGE_SHIFT))][];
+            pageWords = (int)Math.max(1, Math.min(1L << (PAGE_SHIFT - 6), (1L << pWidth) >>> 6));
+        }
+    }
+
+    /**
+     Adds a value with no x or z bits of a signal that is 64 bits wide or
+     less.
+     @author Matthew Hicks
+     @param pValue The value, with no bits set above the width.
+     @return {@link #NEW}, {@link #SEEN}, or {@link #MAYBE_SEEN}.
+    */
+    int addBits(long pValue)
+    {
+        if(pages != null)
+        {
+            int page = (int)(pValue >>> PAGE_SHIFT);
+            if(pages[page] == null)
+                pages[page] = new long[pageWords];
+
+            long[] bits = pages[page];
+            int word = (int)(pValue & ((1 << PAGE_SHIFT) - 1)) >>> 6;
+            long mask = 1L << pValue;
+            if((bits[word] & mask) != 0)
+                return SEEN;
+
+            bits[word] |= mask;
+            return NEW;
+        }
+
+        return addToRuns(0, pValue);
+    }
+
+    /**
+     Adds a value with no x or z bits of a signal wider than 64 bits.
+     @author Matthew Hicks
+     @param pUpperHash 64-bit hash of the bits above the lowest 64.
+     @param pLow The lowest 64 bits of the value.
+     @return {@link #NEW}, {@link #SEEN}, or {@link #MAYBE_SEEN}.
+    */
+    int addWide(long pUpperHash, long pLow)
+    {
+        return addToRuns(pUpperHash, pLow);
+    }
+
+    /**
+     Adds a value that is only known by its hash.
+     @author Matthew Hicks
+     @param pHash 64-bit hash of the value.
+     @return {@link #NEW}, {@link #SEEN}, or {@link #MAYBE_SEEN}.
+    */
+    int addHash(long pHash)
+    {
+        if(pHash == 0)
+            pHash = 1;
+
+        if(hashes.length > 0)
+        {
+            int slot = (int)(pHash ^ (pHash >>> 32)) & (hashes.length - 1);
+            while(hashes[slot] != 0)
+            {
+                if(hashes[slot] == pHash)
+                    return SEEN;
+                slot = (slot + 1) & (hashes.length - 1);
+            }
+        }
+
+        if(hashCount >= MAX_HASHES)
+            return addToBloom(pHash);
+
+        if(2 * (hashCount + 1) > hashes.length)
+            growHashes();
+
+        int slot = (int)(pHash ^ (pHash >>> 32)) & (hashes.length - 1);
+        while(hashes[slot] != 0)
+            slot = (slot + 1) & (hashes.length - 1);
+        hashes[slot] = pHash;
+        ++hashCount;
+        return NEW;
+    }
+
+    // Runs are sorted (as signed numbers) and neither overlap nor touch
+    private int addToRuns(long pKey, long pValue)
+    {
+        // Index of the last run starting at or before the value, or -1
+        int run = findRun(pKey, pValue);
+
+        if(run >= 0 && runKeys[run] == pKey && pValue <= runEnds[run])
+            return SEEN;
+
+        // Values seen after the runs were capped are only in the Bloom filter
+        if(bloom != null && addToBloom(pKey * 0x9E3779B97F4A7C15L ^ pValue) != NEW)
+            return MAYBE_SEEN;
+
+        boolean extendsLow = run >= 0 && runKeys[run] == pKey && pValue != Long.MIN_VALUE && runEnds[run] == pValue - 1;
+        boolean extendsHigh = run + 1 < runCount && runKeys[run + 1] == pKey && pValue != Long.MAX_VALUE && runStarts[run + 1] == pValue + 1;
+        if(extendsLow && extendsHigh)
+        {
+            runEnds[run] = runEnds[run + 1];
+            System.arraycopy(runKeys, run + 2, runKeys, run + 1, runCount - run - 2);
+            System.arraycopy(runStarts, run + 2, runStarts, run + 1, runCount - run - 2);
+            System.arraycopy(runEnds, run + 2, runEnds, run + 1, runCount - run - 2);
+            --runCount;
+        }
+        else if(extendsLow)
+        {
+            runEnds[run] = pValue;
+        }
+        else if(extendsHigh)
+        {
+            runStarts[run + 1] = pValue;
+        }
+        else if(runCount < MAX_RUNS)
+        {
+            if(runCount == runStarts.length)
+            {
+                int length = Math.max(4, runCount << 1);
+                runKeys = Arrays.copyOf(runKeys, length);
+                runStarts = Arrays.copyOf(runStarts, length);
+                runEnds = Arrays.copyOf(runEnds, length);
+            }
+            System.arraycopy(runKeys, run + 1, runKeys, run + 2, runCount - run - 1);
+            System.arraycopy(runStarts, run + 1, runStarts, run + 2, runCount - run - 1);
+            System.arraycopy(runEnds, run + 1, runEnds, run + 2, runCount - run - 1);
+            runKeys[run + 1] = pKey;
+            runStarts[run + 1] = pValue;
+            runEnds[run + 1] = pValue;
+            ++runCount;
+        }
+        else if(bloom == null)
+        {
+            return addToBloom(pKey * 0x9E3779B97F4A7C15L ^ pValue);
+        }
+
+        return NEW;
+    }
+
+    // Binary search for the last run at or before (key, value), or -1
+    private int findRun(long pKey, long pValue)
+    {
+        int low = 0;
+        int high = runCount;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(runKeys[middle] < pKey || (runKeys[middle] == pKey && runStarts[middle] <= pValue))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low - 1;
+    }
+
+    // Returns NEW if any probed bit was clear, otherwise MAYBE_SEEN
+    private int addToBloom(long pValue)
+    {
+        if(bloom == null)
+            bloom = new long[BLOOM_BITS >>> 6];
+
+        boolean added = false;
+        long hash = pValue;
+        for(int probe = 0; probe < BLOOM_PROBES; ++probe)
+        {
+            hash = (hash ^ (hash >>> 31)) * 0xBF58476D1CE4E5B9L + probe;
+            hash ^= hash >>> 27;
+            int bit = (int)hash & (BLOOM_BITS - 1);
+            if((bloom[bit >>> 6] & (1L << bit)) == 0)
+            {
+                bloom[bit >>> 6] |= 1L << bit;
+                added = true;
+            }
+        }
+
+        return added ? NEW : MAYBE_SEEN;
+    }
+
+    private void growHashes()
+    {
+        long[] old = hashes;
+        hashes = new long[Math.max(16, old.length << 1)];
+        for(long hash : old)
+        {
+            if(hash == 0)
+                continue;
+
+            int slot = (int)(hash ^ (hash >>> 32)) & (hashes.length - 1);
+            while(hashes[slot] != 0)
+                slot = (slot + 1) & (hashes.length - 1);
+            hashes[slot] = hash;
+        }
+    }
+}
@@ -5,6 +5,10 @@ package vcd;
  tracking signal value updates associated with specific points in time without
  the memory overhead of using a {@link Signal} object.  Immutable.
  
+ The SigVal objects of a {@link TimeSeries} are views that hold only the
+ series and the index of their update; the name and value are read from
+ the series when asked for.
+ 
  @author Matthew Hicks
  @see TimePoint
 */
@@ -12,6 +16,10 @@ public class SigVal
 {
     private final String value;
     private final String name;
+    
+    // Set for views of a series, in place of the name and value
+    private final TimeSeries series;
+    private final int update;
  
     /**
      Constructs a signal name, value tuple.
@@ -23,6 +31,22 @@ public class SigVal
     {
         value = pValue;
         name = pName;
+        series = null;
+        update = -1;
+    }
+    
+    /**
+     Constructs a view of an update of a series.
+     @author Matthew Hicks
+     @param pSeries The series.
+     @param pUpdate Index of the update in the series.
+    */
+    SigVal(TimeSeries pSeries, int pUpdate)
+    {
+        value = null;
+        name = null;
+        series = pSeries;
+        update = pUpdate;
     }
     
     /**
@@ -32,7 +56,7 @@ public class SigVal
     */
     public String getName()
     {
-        return name;
+        return series != null ? series.getSymbol(update) : name;
     }
     
     /**
@@ -42,6 +66,6 @@ public class SigVal
     */
     public String getValue()
     {
-        return value;
+        return series != null ? series.getValue(update) : value;
     }
 }
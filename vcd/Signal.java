@@ -1,8 +1,16 @@
 package vcd;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 enum SignalType
 {
-    wire, reg
+    wire, reg, real
 }
 
 
@@ -26,14 +34,31 @@ public class Signal
     private final int width;
     private final SignalType type;
     private final String symbol;
+    private int index = -1;
+    
+    // Other full names declared with the same symbol, in header order; they
+    // share this signal's value and history
+    private ArrayList<String> aliases = null;
     
-    private String currentValue = null;
+    // Current value, encoded as VPI aval/bval bits (see LogicValue).  Signals
+    // wider than 64 bits keep their value in the wide arrays instead.
+    private boolean hasValue = false;
+    private long aval = 0;
+    private long bval = 0;
+    private final long[] wideAval;
+    private final long[] wideBval;
+    
+    // Only built when asked for by getValue()
+    private String valueString = null;
     private long timeOfLastUpdate = 0;
     
-    // Performance counters
+    // Performance counters; the time in each state covers up to countedSince
     private long timeLow = 0;
     private long timeHigh = 0;
+    private long timeX = 0;
+    private long timeZ = 0;
     private long toggles = 0;
+    private long countedSince = 0;
     
     /**
      Constructs a signal with the specified properties, when path and name are seperated.
@@ -52,6 +77,9 @@ public class Signal
         type = pType;
         width = pWidth;
         symbol = pSymbol;
+        
+        wideAval = pWidth > 64 ? new long[ValueCodec.wordsFor(pWidth)] : null;
+        wideBval = pWidth > 64 ? new long[ValueCodec.wordsFor(pWidth)] : null;
     }
     
     /**
@@ -72,45 +100,347 @@ public class Signal
     
     /**
      Updates the value and time of last update of this signal. Appropriately
-     adjusts the performance counters.
+     adjusts the performance counters.  The value is parsed into its
+     encoded form; parsers should prefer the encoded overloads.
      @author Matthew Hicks
-     @param pValue New value of the signal.
+     @param pValue New value of the signal, in VCD format (e.g., "1",
+     "b10x1", or "r1.5").
      @param pTime Time of the value update.
     */
     public void setValue(String pValue, long pTime)
     {
-        //long diffTime = pTime - timeOfLastUpdate;
+        long[] newAval = new long[ValueCodec.wordsFor(Math.max(1, width))];
+        long[] newBval = new long[newAval.length];
+        ValueCodec.encode(pValue, Math.max(1, width), type == SignalType.real, newAval, newBval);
         
-        if(currentValue == null)
+        setValue(newAval, newBval, pTime);
+    }
+    
+    /**
+     Updates the value of this scalar signal.
+     @author Matthew Hicks
+     @param pValue New 4-state value of the signal.
+     @param pTime Time of the value update.
+     @see LogicValue
+    */
+    public void setValue(LogicValue pValue, long pTime)
+    {
+        setValue(pValue.getAval(), pValue.getBval(), pTime);
+    }
+    
+    /**
+     Updates the value of this real signal.
+     @author Matthew Hicks
+     @param pValue New value of the signal.
+     @param pTime Time of the value update.
+    */
+    public void setValue(double pValue, long pTime)
+    {
+        setValue(Double.doubleToRawLongBits(pValue), 0, pTime);
+    }
+    
+    /**
+     Updates the value of this signal from its encoded form, for signals that
+     are 64 bits wide or less.  Bit i of the signal is bit i of each word.
+     Wider signals get the passed bits as their low 64 bits and zeros above.
+     @author Matthew Hicks
+     @param pAval The aval bits of the new value.
+     @param pBval The bval bits of the new value; a set bit makes the
+     matching signal bit z (aval 0) or x (aval 1).
+     @param pTime Time of the value update.
+     @see LogicValue
+    */
+    public void setValue(long pAval, long pBval, long pTime)
+    {
+        valueChanging(pTime);
+        
+        if(wideAval != null)
         {
-            ;
+            Arrays.fill(wideAval, 0);
+            Arrays.fill(wideBval, 0);
+            wideAval[0] = pAval;
+            wideBval[0] = pBval;
         }
-        /*else if(isLowValue(currentValue))
+        
+        aval = pAval;
+        bval = pBval;
+    }
+    
+    /**
+     Updates the value of this signal from its encoded form, for signals of
+     any width.  Bit i of the signal is bit (i % 64) of word (i / 64).
+     @author Matthew Hicks
+     @param pAval The aval words of the new value.
+     @param pBval The bval words of the new value.
+     @param pTime Time of the value update.
+     @see LogicValue
+    */
+    public void setValue(long[] pAval, long[] pBval, long pTime)
+    {
+        valueChanging(pTime);
+        
+        if(wideAval != null)
         {
-            timeLow += diffTime;
+            System.arraycopy(pAval, 0, wideAval, 0, wideAval.length);
+            System.arraycopy(pBval, 0, wideBval, 0, wideBval.length);
         }
-        else
+        
+        aval = pAval[0];
+        bval = pBval[0];
+    }
+    
+    /**
+     Sets the value of this signal without counting it as an update: the
+     performance counters and any history are left alone.  Used to rebuild
+     the state of the signal as of some time before reading on from there.
+     @author Matthew Hicks
+     @param pAval The aval bits of the value.
+     @param pBval The bval bits of the value.
+     @param pTime Time the value was set.
+    */
+    void restoreValue(long pAval, long pBval, long pTime)
+    {
+        if(wideAval != null)
         {
-            timeHigh += diffTime;
-        }*/
+            Arrays.fill(wideAval, 0);
+            Arrays.fill(wideBval, 0);
+            wideAval[0] = pAval;
+            wideBval[0] = pBval;
+        }
         
+        aval = pAval;
+        bval = pBval;
+        restored(pTime);
+    }
+    
+    /**
+     Sets the value of this signal, of any width, without counting it as an
+     update.
+     @author Matthew Hicks
+     @param pAval The aval words of the value.
+     @param pBval The bval words of the value.
+     @param pTime Time the value was set.
+    */
+    void restoreValue(long[] pAval, long[] pBval, long pTime)
+    {
+        if(wideAval != null)
+        {
+            System.arraycopy(pAval, 0, wideAval, 0, wideAval.length);
+            System.arraycopy(pBval, 0, wideBval, 0, wideBval.length);
+        }
+        
+        aval = pAval[0];
+        bval = pBval[0];
+        restored(pTime);
+    }
+    
+    /**
+     Forgets the value of this signal, as if it was never set.
+     @author Matthew Hicks
+    */
+    void clearValue()
+    {
+        hasValue = false;
+        valueString = null;
+        aval = 0;
+        bval = 0;
+        timeOfLastUpdate = 0;
+    }
+    
+    /**
+     Forgets the value and resets the performance counters of this signal,
+     as if the file had not been read yet.
+     @author Matthew Hicks
+    */
+    void clearAll()
+    {
+        clearValue();
+        resetCounters();
+        countedSince = 0;
+    }
+    
+    private void restored(long pTime)
+    {
+        hasValue = true;
+        valueString = null;
         timeOfLastUpdate = pTime;
-        currentValue = pValue;
+        countedSince = pTime;
+    }
+    
+    // Bookkeeping shared by every way of setting the value; runs before the
+    // new value is stored so that the old value gets the time it was held
+    private void valueChanging(long pTime)
+    {
+        updateCounters(pTime);
+        
+        hasValue = true;
+        valueString = null;
+        timeOfLastUpdate = pTime;
+        countedSince = pTime;
         ++toggles;
     }
     
+    /**
+     Credits the current value with the time it has been held up to the
+     passed time.  The time in each state only grows when the value changes,
+     so this should be called at the end of a run (or window) before reading
+     the counters.
+     @author Matthew Hicks
+     @param pTime The time to count up to.
+    */
+    public void updateCounters(long pTime)
+    {
+        if(!hasValue || pTime <= countedSince)
+            return;
+        
+        long held = pTime - countedSince;
+        switch(currentState())
+        {
+            case 0:
+                timeLow += held;
+                break;
+            case 1:
+                timeHigh += held;
+                break;
+            case 2:
+                timeZ += held;
+                break;
+            default:
+                timeX += held;
+                break;
+        }
+        countedSince = pTime;
+    }
+    
+    /**
+     Starts crediting the current value with time from the passed time on,
+     without resetting the counters.
+     @author Matthew Hicks
+     @param pTime The time to count from.
+    */
+    void startCounting(long pTime)
+    {
+        countedSince = pTime;
+    }
+    
     /**
      Resets the performance counters, but maintains the value and time of last
-     update for this signal.
+     update for this signal.  The current value is still credited with all of
+     the time since it was set; see {@link Signal#resetCounters(long)}.
      @author Matthew Hicks
     */
     public void resetCounters()
     {
         timeLow = 0;
         timeHigh = 0;
+        timeX = 0;
+        timeZ = 0;
         toggles = 0;
     }
     
+    /**
+     Resets the performance counters as of the passed time, so that the
+     current value is only credited with the time it is held after it.
+     @author Matthew Hicks
+     @param pTime Time of the reset.
+    */
+    public void resetCounters(long pTime)
+    {
+        resetCounters();
+        countedSince = Math.max(countedSince, pTime);
+    }
+    
+    /**
+     Writes the value, time of last update, and performance counters of
+     this signal to a {@link ValueCache}.
+     @author Matthew Hicks
+     @param pOut Stream to write to.
+     @throws java.io.IOException if the stream fails
+    */
+    void writeState(DataOutputStream pOut)throws IOException
+    {
+        pOut.writeBoolean(hasValue);
+        pOut.writeLong(aval);
+        pOut.writeLong(bval);
+        if(wideAval != null)
+        {
+            for(int word = 0; word < wideAval.length; ++word)
+            {
+                pOut.writeLong(wideAval[word]);
+                pOut.writeLong(wideBval[word]);
+            }
+        }
+        
+        pOut.writeLong(timeOfLastUpdate);
+        pOut.writeLong(countedSince);
+        pOut.writeLong(toggles);
+        pOut.writeLong(timeLow);
+        pOut.writeLong(timeHigh);
+        pOut.writeLong(timeX);
+        pOut.writeLong(timeZ);
+    }
+    
+    /**
+     Reads what {@link Signal#writeState} wrote, replacing the value, time
+     of last update, and performance counters of this signal.
+     @author Matthew Hicks
+     @param pIn Buffer to read from.
+    */
+    void readState(ByteBuffer pIn)
+    {
+        hasValue = pIn.get() != 0;
+        aval = pIn.getLong();
+        bval = pIn.getLong();
+        if(wideAval != null)
+        {
+            for(int word = 0; word < wideAval.length; ++word)
+            {
+                wideAval[word] = pIn.getLong();
+                wideBval[word] = pIn.getLong();
+            }
+        }
+        valueString = null;
+        
+        timeOfLastUpdate = pIn.getLong();
+        countedSince = pIn.getLong();
+        toggles = pIn.getLong();
+        timeLow = pIn.getLong();
+        timeHigh = pIn.getLong();
+        timeX = pIn.getLong();
+        timeZ = pIn.getLong();
+    }
+    
+    /**
+     Returns true if this signal has been given a value.
+     @author Matthew Hicks
+     @return true if the signal has a value.
+    */
+    boolean hasValue()
+    {
+        return hasValue;
+    }
+    
+    /**
+     Copies the current value of this signal into the passed arrays.
+     @author Matthew Hicks
+     @param pAval Receives the aval words; at least as many words as the
+     signal needs.
+     @param pBval Receives the bval words.
+    */
+    void copyValue(long[] pAval, long[] pBval)
+    {
+        if(wideAval != null)
+        {
+            System.arraycopy(wideAval, 0, pAval, 0, wideAval.length);
+            System.arraycopy(wideBval, 0, pBval, 0, wideBval.length);
+        }
+        else
+        {
+            pAval[0] = aval;
+            pBval[0] = bval;
+        }
+    }
+    
     // Getters
     
     /**
@@ -185,13 +515,109 @@ public class Signal
     }
     
     /**
-     Returns the current value of this signal.
+     Returns the index of this signal among the signals of its VCD file.
      @author Matthew Hicks
-     @return A string representing the current value.
+     @return An index from 0 to the number of signals - 1, or -1 if this
+     signal was not created by a VCD.
+     @see VCD#getSignal
+    */
+    public int getIndex()
+    {
+        return index;
+    }
+    
+    /**
+     Returns the other full names declared with this signal's symbol.
+     Simulators declare a net once in each scope that it passes through,
+     all with one symbol, so every alias shares this signal's value,
+     counters, and history.
+     @author Matthew Hicks
+     @return The full names of the aliases, in header order; empty if there
+     are none.
+     @see VCD#getSignal(String)
+    */
+    public List<String> getAliases()
+    {
+        return aliases == null ? Collections.<String>emptyList() : Collections.unmodifiableList(aliases);
+    }
+    
+    /**
+     Adds a full name declared with this signal's symbol.
+     @author Matthew Hicks
+     @param pName Full name of the alias.
+    */
+    void addAlias(String pName)
+    {
+        if(aliases == null)
+            aliases = new ArrayList<String>(2);
+        aliases.add(pName);
+    }
+    
+    /**
+     Sets the index of this signal among the signals of its VCD file.
+     @author Matthew Hicks
+     @param pIndex The index.
+    */
+    void setIndex(int pIndex)
+    {
+        index = pIndex;
+    }
+    
+    /**
+     Returns the current value of this signal in canonical VCD format.
+     @author Matthew Hicks
+     @return A string representing the current value, or null if the
+     signal has not been set.
     */
     public String getValue()
     {
-        return currentValue;
+        if(!hasValue)
+            return null;
+        
+        if(valueString == null)
+        {
+            if(wideAval != null)
+                valueString = ValueCodec.format(width, false, wideAval, wideBval);
+            else
+                valueString = ValueCodec.format(Math.max(1, width), type == SignalType.real, new long[] {aval}, new long[] {bval});
+        }
+        
+        return valueString;
+    }
+    
+    /**
+     Returns the current value of bit 0 of this signal, which is the whole
+     value of a scalar signal.
+     @author Matthew Hicks
+     @return The 4-state value, or null if the signal has not been set.
+    */
+    public LogicValue getLogicValue()
+    {
+        return hasValue ? LogicValue.fromBits(aval, bval) : null;
+    }
+    
+    /**
+     Returns the aval bits of the low 64 bits of the current value.  For real
+     signals, these are the bits of the IEEE 754 double.
+     @author Matthew Hicks
+     @return The aval bits.
+     @see LogicValue
+    */
+    public long getAval()
+    {
+        return aval;
+    }
+    
+    /**
+     Returns the bval bits of the low 64 bits of the current value.  A set
+     bit marks an x or z.
+     @author Matthew Hicks
+     @return The bval bits.
+     @see LogicValue
+    */
+    public long getBval()
+    {
+        return bval;
     }
     
     /**
@@ -224,6 +650,38 @@ public class Signal
         return timeLow;
     }
     
+    /**
+     Returns the amount of time that this signal had an x value (any x bit) since creation or the last counter reset.
+     @author Matthew Hicks
+     @return A number in simulation time units that this signal had an x value.
+    */
+    public long getTimeX()
+    {
+        return timeX;
+    }
+    
+    /**
+     Returns the amount of time that this signal had a z value (any z bit, but no x bits) since creation or the last counter reset.
+     @author Matthew Hicks
+     @return A number in simulation time units that this signal had a z value.
+    */
+    public long getTimeZ()
+    {
+        return timeZ;
+    }
+    
+    /**
+     Returns the static probability of this signal: the fraction of the
+     counted time that it had a high value.
+     @author Matthew Hicks
+     @return A number between 0 and 1, or NaN if no time has been counted.
+    */
+    public double getStaticProbability()
+    {
+        long total = timeLow + timeHigh + timeX + timeZ;
+        return total == 0 ? Double.NaN : ((double)timeHigh) / total;
+    }
+    
     /**
      Returns the number of times that this signal was updated since creation or the last counter reset.
      @author Matthew Hicks
@@ -235,8 +693,44 @@ public class Signal
     }
     
     // Private helper functions
-    private static boolean isLowValue(String pValue)
+    
+    // State of the whole current value as a LogicValue ordinal: x if any bit
+    // is x, else z if any bit is z, else low (0) if every bit is 0 and high
+    // (1) otherwise.  Reals are low at 0.0 and high everywhere else.
+    private int currentState()
     {
+        if(type == SignalType.real)
+            return isLowValue() ? 0 : 1;
+        
+        if(wideAval == null)
+            return (aval & bval) != 0 ? 3 : bval != 0 ? 2 : aval != 0 ? 1 : 0;
+        
+        boolean z = false;
+        for(int word = 0; word < wideAval.length; ++word)
+        {
+            if((wideAval[word] & wideBval[word]) != 0)
+                return 3;
+            z |= wideBval[word] != 0;
+        }
+        
+        return z ? 2 : isLowValue() ? 0 : 1;
+    }
+    
+    // True if every bit of the current (known) value is 0
+    private boolean isLowValue()
+    {
+        if(type == SignalType.real)
+            return (aval << 1) == 0;
+        
+        if(wideAval == null)
+            return aval == 0;
+        
+        for(long word : wideAval)
+        {
+            if(word != 0)
+                return false;
+        }
+        
         return true;
     }
 }
@@ -0,0 +1,115 @@
+package vcd;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+/**
+ SignalFilter selects the signals of a VCD file that an analysis cares about.
+ A filter passed to {@link vcd.VCD#setSignalFilter} is checked once for each
+ variable declaration in the header.  Signals that it rejects never get a
+ {@link Signal} or {@link SignalHistory} object and their value changes are
+ skipped without being decoded.
+
+ @author Matthew Hicks
+ @see VCD
+*/
+public interface SignalFilter
+{
+    /**
+     Decides whether a signal is kept.  The signal passed in is only a
+     description of the declaration; it has no value and is not the object
+     that ends up in {@link vcd.VCD#signals}.
+     @author Matthew Hicks
+     @param pSignal The declared signal.
+     @return true to keep the signal.
+    */
+    boolean accept(Signal pSignal);
+
+    /**
+     Returns a filter that keeps signals whose full name (e.g.,
+     "/top/cpu/pc[31:0]") matches a glob.  A '*' matches any characters
+     within one scope, "**" matches across scopes, and '?' matches one
+     character.  For example, "/top/cpu/**" keeps everything below the cpu
+     scope.
+     @author Matthew Hicks
+     @param pGlob The glob pattern.
+     @return The filter.
+    */
+    static SignalFilter byGlob(String pGlob)
+    {
+        return byRegex(globToRegex(pGlob));
+    }
+
+    /**
+     Translates a glob, with the syntax of {@link #byGlob}, into a regular
+     expression.
+     @author Matthew Hicks
+     @param pGlob The glob pattern.
+     @return The regular expression.
+    */
+    static String globToRegex(String pGlob)
+    {
+        StringBuilder regex = new StringBuilder();
+        for(int index = 0; index < pGlob.length(); ++index)
+        {
+            char c = pGlob.charAt(index);
+            if(c == '*' && index + 1 < pGlob.length() && pGlob.charAt(index + 1) == '*')
+            {
+                regex.append(".*");
+                ++index;
+            }
+            else if(c == '*')
+            {
+                regex.append("[^/]*");
+            }
+            else if(c == '?')
+            {
+                regex.append("[^/]");
+            }
+            else
+            {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return regex.toString();
+    }
+
+    /**
+     Returns a filter that keeps signals whose full name matches a regular
+     expression in its entirety.
+     @author Matthew Hicks
+     @param pRegex The regular expression.
+     @return The filter.
+    */
+    static SignalFilter byRegex(String pRegex)
+    {
+        final Pattern pattern = Pattern.compile(pRegex);
+        return new SignalFilter()
+        {
+            public boolean accept(Signal pSignal)
+            {
+                return pattern.matcher(pSignal.getName()).matches();
+            }
+        };
+    }
+
+    /**
+     Returns a filter that keeps signals whose full name is in a set.
+     @author Matthew Hicks
+     @param pNames Full names of the signals to keep.
+     @return The filter.
+    */
+    static SignalFilter byNames(Collection<String> pNames)
+    {
+        final HashSet<String> names = new HashSet<String>(pNames);
+        return new SignalFilter()
+        {
+            public boolean accept(Signal pSignal)
+            {
+                return names.contains(pSignal.getName());
+            }
+        };
+    }
+}
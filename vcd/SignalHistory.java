@@ -1,6 +1,10 @@
 package vcd;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  SignalHistory contains information about a variable from a VCD file; this
@@ -9,6 +13,16 @@ import java.util.ArrayList;
  duty cycle.  This signal focused tracking of values is in contrast to the time
  focused tracking implemented by {@link vcd.TimePoint}.
  
+ The history is stored as columns: a growable array of update times and a
+ bit-packed column of values (two bits per bit of the signal).  The list of
+ {@link ValueTimeTuple} objects returned by {@link #getValues} is only built
+ when asked for; the value at a given time is found by binary search over
+ the time column (see {@link #valueAt} and {@link #sampleAll}).
+ 
+ A 64-bit fingerprint of the (time, value) updates in the history is kept
+ as they arrive, so that equal histories can be found by hashing before
+ comparing them update by update.
+ 
  @author Matthew Hicks
  @see ValueTimeTuple
  @see TimePoint
@@ -17,7 +31,15 @@ import java.util.ArrayList;
 public class SignalHistory extends Signal
 {
     // This version of a signal keeps a full history of values and times
-    private final ArrayList<ValueTimeTuple> values = new ArrayList<ValueTimeTuple>(1000);
+    private long[] times = new long[4];
+    private final ValueColumn values;
+    
+    // Built by getValues() and dropped whenever the history changes
+    private ArrayList<ValueTimeTuple> valuesView = null;
+    
+    // Hash of every (time, value) update in the history, in order
+    static final long FINGERPRINT_SEED = 0x6A09E667F3BCC909L;
+    private long fingerprint = FINGERPRINT_SEED;
     
     /**
      Constructs a signal with the specified properties, when path and name are seperated.
@@ -32,6 +54,7 @@ public class SignalHistory extends Signal
     public SignalHistory(String pPath, String pName, SignalType pType, int pWidth, String pSymbol)
     {
         super(pPath, pName, pType, pWidth, pSymbol);
+        values = new ValueColumn(pWidth, pType == SignalType.real);
     }
     
     /**
@@ -46,6 +69,7 @@ public class SignalHistory extends Signal
     public SignalHistory(String pName, SignalType pType, int pWidth, String pSymbol)
     {
         super(pName, pType, pWidth, pSymbol);
+        values = new ValueColumn(pWidth, pType == SignalType.real);
     }
     
     /**
@@ -53,13 +77,153 @@ public class SignalHistory extends Signal
      and update time to the list of values and update times. Appropriately
      adjusts the performance counters.
      @author Matthew Hicks
-     @param pValue New value of the signal.
+     @param pAval The aval bits of the new value.
+     @param pBval The bval bits of the new value.
      @param pTime Time of the value update.
+     @see Signal#setValue(long, long, long)
     */
-    public void setValue(String pValue, long pTime)
+    @Override
+    public void setValue(long pAval, long pBval, long pTime)
     {
-        super.setValue(pValue, pTime);
-        values.add(new ValueTimeTuple(pValue, pTime));
+        super.setValue(pAval, pBval, pTime);
+        
+        recordTime(pTime);
+        values.add(pAval, pBval);
+        
+        // Wider signals fold zero upper words, as the long[] setter would
+        fingerprint = foldWord(fold(fingerprint, pTime), pAval, pBval, Math.min(64, getWidth()), getType() == SignalType.real);
+        if(getWidth() > 64 && getType() != SignalType.real)
+        {
+            for(int word = 1; word < ValueCodec.wordsFor(getWidth()); ++word)
+                fingerprint = foldWord(fingerprint, 0, 0, Math.min(64, getWidth() - (word << 6)), false);
+        }
+    }
+    
+    /**
+     Updates the value and time of last update of this signal. Adds the value
+     and update time to the list of values and update times. Appropriately
+     adjusts the performance counters.
+     @author Matthew Hicks
+     @param pAval The aval words of the new value.
+     @param pBval The bval words of the new value.
+     @param pTime Time of the value update.
+     @see Signal#setValue(long[], long[], long)
+    */
+    @Override
+    public void setValue(long[] pAval, long[] pBval, long pTime)
+    {
+        super.setValue(pAval, pBval, pTime);
+        
+        recordTime(pTime);
+        values.add(pAval, pBval);
+        
+        fingerprint = fold(fingerprint, pTime);
+        if(getWidth() <= 64 || getType() == SignalType.real)
+        {
+            fingerprint = foldWord(fingerprint, pAval[0], pBval[0], Math.min(64, getWidth()), getType() == SignalType.real);
+        }
+        else
+        {
+            for(int word = 0; word < ValueCodec.wordsFor(getWidth()); ++word)
+                fingerprint = foldWord(fingerprint, pAval[word], pBval[word], Math.min(64, getWidth() - (word << 6)), false);
+        }
+    }
+    
+    // Folds one word of a value into a fingerprint, leaving out the bits
+    // that the value column does not keep
+    static long foldWord(long pHash, long pAval, long pBval, int pBits, boolean pReal)
+    {
+        if(pReal)
+            return fold(pHash, pAval);
+        
+        long mask = pBits >= 64 ? -1L : (1L << Math.max(1, pBits)) - 1;
+        return fold(fold(pHash, pAval & mask), pBval & mask);
+    }
+    
+    static long fold(long pHash, long pWord)
+    {
+        long hash = (pHash ^ pWord) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+    
+    // Appends to the time column, ahead of the matching value
+    private void recordTime(long pTime)
+    {
+        int count = values.size();
+        if(count == times.length)
+            times = Arrays.copyOf(times, count + (count >> 1) + 1);
+        
+        times[count] = pTime;
+        valuesView = null;
+    }
+    
+    /**
+     Writes the state of this signal, followed by its history as a column of
+     delta-encoded times and the packed column of values.
+     @author Matthew Hicks
+     @param pOut Stream to write to.
+     @throws java.io.IOException if the stream fails
+    */
+    @Override
+    void writeState(DataOutputStream pOut)throws IOException
+    {
+        super.writeState(pOut);
+        
+        int count = values.size();
+        pOut.writeLong(fingerprint);
+        pOut.writeInt(count);
+        long last = 0;
+        for(int index = 0; index < count; ++index)
+        {
+            ValueCache.writeVarLong(pOut, times[index] - last);
+            last = times[index];
+        }
+        
+        values.write(pOut);
+    }
+    
+    /**
+     Returns the fewest bytes that {@link SignalHistory#writeState} can
+     write for the history: one per time and the packed values.
+     @author Matthew Hicks
+     @return Number of bytes.
+    */
+    long historyBytes()
+    {
+        return values.size() + values.packedBytes();
+    }
+    
+    /**
+     Reads what {@link SignalHistory#writeState} wrote, replacing the state
+     and history of this signal.
+     @author Matthew Hicks
+     @param pIn Buffer to read from.
+    */
+    @Override
+    void readState(ByteBuffer pIn)
+    {
+        super.readState(pIn);
+        
+        fingerprint = pIn.getLong();
+        int count = ValueCache.readCount(pIn, 1);
+        times = new long[Math.max(4, count)];
+        long last = 0;
+        for(int index = 0; index < count; ++index)
+            times[index] = (last += ValueCache.readVarLong(pIn));
+        
+        values.read(pIn, count);
+        valuesView = null;
+    }
+    
+    /**
+     Forgets the value, performance counters, and history of this signal.
+     @author Matthew Hicks
+    */
+    @Override
+    void clearAll()
+    {
+        super.clearAll();
+        resetHistory();
     }
     
     /**
@@ -69,12 +233,180 @@ public class SignalHistory extends Signal
     */
     public void resetHistory()
     {
+        times = new long[4];
         values.clear();
+        valuesView = null;
+        fingerprint = FINGERPRINT_SEED;
+    }
+    
+    /**
+     Returns a 64-bit fingerprint of the (time, value) updates in the
+     history of this signal.  Signals with equal histories (see
+     {@link #equals(SignalHistory)}) have equal fingerprints; signals with
+     equal fingerprints almost always have equal histories.
+     @author Matthew Hicks
+     @return The fingerprint.
+    */
+    public long getFingerprint()
+    {
+        return fingerprint;
+    }
+    
+    /**
+     Returns the number of values in the history of this signal without
+     building the list returned by {@link #getValues}.
+     @author Matthew Hicks
+     @return Number of value updates recorded.
+    */
+    public int getValueCount()
+    {
+        return values.size();
+    }
+    
+    /**
+     Returns the time of a value update in the history of this signal.
+     @author Matthew Hicks
+     @param pChange Index of the update, from 0 to {@link #getValueCount} - 1.
+     @return The time of the update.
+     @throws java.lang.IndexOutOfBoundsException if the supplied index is out
+     of range
+    */
+    public long getChangeTime(int pChange)
+    {
+        checkChange(pChange);
+        return times[pChange];
+    }
+    
+    /**
+     Returns the value set by an update in the history of this signal, in
+     canonical VCD form.
+     @author Matthew Hicks
+     @param pChange Index of the update, from 0 to {@link #getValueCount} - 1.
+     @return The value as a String.
+     @throws java.lang.IndexOutOfBoundsException if the supplied index is out
+     of range
+    */
+    public String getChangeValue(int pChange)
+    {
+        checkChange(pChange);
+        return values.get(pChange);
+    }
+    
+    /**
+     Copies the value set by an update in the history of this signal into
+     aval and bval words, without making a String.
+     @author Matthew Hicks
+     @param pChange Index of the update, from 0 to {@link #getValueCount} - 1.
+     @param pAval Receives the aval words; one per 64 bits of the signal.
+     @param pBval Receives the bval words; one per 64 bits of the signal.
+     @see LogicValue
+     @throws java.lang.IndexOutOfBoundsException if the supplied index is out
+     of range
+    */
+    public void copyChangeValue(int pChange, long[] pAval, long[] pBval)
+    {
+        checkChange(pChange);
+        values.read(pChange, pAval, pBval);
+    }
+    
+    /**
+     Returns the index of the update in effect at the passed time: the last
+     update at or before it.  When there are several updates at the same
+     time, the last of them wins, as it does at the end of a timestep.
+     Found by binary search over the time column.
+     @author Matthew Hicks
+     @param pTime The time.
+     @return Index of the update, or -1 if the history has no update at or
+     before the time.
+    */
+    public int changeAt(long pTime)
+    {
+        // First update after the time, less one
+        int low = 0;
+        int high = values.size();
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(times[middle] <= pTime)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        
+        return low - 1;
+    }
+    
+    /**
+     Returns the value of this signal at the passed time, from its history.
+     @author Matthew Hicks
+     @param pTime The time.
+     @return The value in canonical VCD form, or null if the history has no
+     update at or before the time.
+     @see #changeAt
+    */
+    public String valueAt(long pTime)
+    {
+        int change = changeAt(pTime);
+        return change < 0 ? null : values.get(change);
+    }
+    
+    /**
+     Returns the time of the first update in the history of this signal
+     after the passed time.
+     @author Matthew Hicks
+     @param pTime The time.
+     @return The time of the update, or -1 if there is none after the time.
+    */
+    public long nextChangeAfter(long pTime)
+    {
+        int next = changeAt(pTime) + 1;
+        return next < values.size() ? times[next] : -1;
+    }
+    
+    /**
+     Returns the index of the update in effect at each of the passed times,
+     as {@link #changeAt} would.  A cursor is walked forward through the
+     history as the times advance, so sampling in time order costs time in
+     proportion to the number of updates plus the number of times; a time
+     earlier than the one before it is found by binary search instead.
+     @author Matthew Hicks
+     @param pTimes The times, preferably in increasing order.
+     @return Index of the update in effect at each time, or -1 where the
+     history has no update at or before the time.
+    */
+    public int[] sampleAll(long[] pTimes)
+    {
+        int count = values.size();
+        int[] changes = new int[pTimes.length];
+        int cursor = -1;
+        for(int sample = 0; sample < pTimes.length; ++sample)
+        {
+            long time = pTimes[sample];
+            if(cursor >= 0 && times[cursor] > time)
+                cursor = changeAt(time);
+            else
+            {
+                while(cursor + 1 < count && times[cursor + 1] <= time)
+                    ++cursor;
+            }
+            changes[sample] = cursor;
+        }
+        
+        return changes;
+    }
+    
+    private void checkChange(int pChange)
+    {
+        if(pChange < 0 || pChange >= values.size())
+            throw new IndexOutOfBoundsException("ERROR: signal " + getName() + " has no update " + pChange);
     }
     
     /**
      Returns a list of values that this signal has had and the times those values
      were set.  This includes the current value and time of last update.
+     The list is built from the packed history on first use and kept until
+     the history changes.  Values are in canonical VCD form, e.g., "b101"
+     for a vector that the VCD file wrote as "b0101".
      @author Matthew Hicks
      @return A list of values and times that this signal has had.
      @see java.util.ArrayList
@@ -82,7 +414,15 @@ public class SignalHistory extends Signal
     */
     public ArrayList<ValueTimeTuple> getValues()
     {
-        return values;
+        if(valuesView == null)
+        {
+            int count = values.size();
+            valuesView = new ArrayList<ValueTimeTuple>(count);
+            for(int index = 0; index < count; ++index)
+                valuesView.add(new ValueTimeTuple(values.get(index), times[index]));
+        }
+        
+        return valuesView;
     }
 
     /**
@@ -95,7 +435,9 @@ public class SignalHistory extends Signal
     public boolean equals(SignalHistory pSH)
     {
 	// Perform the fast checks first
-	if(this.getValues().size() != pSH.getValues().size())
+	if(this.fingerprint != pSH.fingerprint)
+	    return false;
+	if(this.getValueCount() != pSH.getValueCount())
 	    return false;
 	if(this.getTimeLow() != pSH.getTimeLow())
 	    return false;
@@ -106,15 +448,13 @@ public class SignalHistory extends Signal
 	if(this.getWidth() != pSH.getWidth())
 	    return false;
 
-	// Now we have to check update-by-update
-	for(int vtt = 0; vtt < this.getValues().size(); ++ vtt)
+	// Now we have to check update-by-update, straight from the columns
+	for(int update = 0; update < this.getValueCount(); ++update)
 	{
-	    if(this.getValues().get(vtt).getTime() != pSH.getValues().get(vtt).getTime())
-		return false;
-	    if(!this.getValues().get(vtt).getValue().equals(pSH.getValues().get(vtt).getValue()))
+	    if(this.times[update] != pSH.times[update])
 		return false;
 	}
 
-	return true;
+	return values.sameValues(pSH.values);
     }
   }
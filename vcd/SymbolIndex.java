@@ -0,0 +1,115 @@
+package vcd;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ SymbolIndex resolves VCD identifier codes to signals without allocating or
+ hashing.  Identifier codes are strings of printable characters ('!' to
+ '~'), so each one decodes to a number in bijective base 94 with its first
+ character least significant.  Simulators hand out codes in order, so the
+ numbers are dense and index straight into an array of signals.  Codes that
+ are too long, or too far apart to index densely, fall back to a map.
+
+ @author Matthew Hicks
+ @see VCD
+*/
+final class SymbolIndex
+{
+    private static final int RADIX = 94;
+
+    // Longest code that still decodes to an int
+    private static final int MAX_DENSE_LENGTH = 4;
+
+    // Smallest table that is always allowed, regardless of signal count
+    private static final int MIN_DENSE_SIZE = 1 << 16;
+
+    private final Signal[] dense;
+    private final HashMap<String, Signal> sparse = new HashMap<String, Signal>();
+
+    /**
+     Builds an index over the passed symbol table.
+     @author Matthew Hicks
+     @param pSignals Signals keyed by their identifier codes.
+    */
+    SymbolIndex(Map<String, Signal> pSignals)
+    {
+        int maxCode = -1;
+        for(String symbol : pSignals.keySet())
+            maxCode = Math.max(maxCode, code(symbol));
+
+        // Codes handed out by something other than a counter would make
+        // for a mostly-empty table; those only use the map
+        int limit = Math.max(MIN_DENSE_SIZE, pSignals.size() << 3);
+        dense = new Signal[Math.min(maxCode, limit - 1) + 1];
+
+        for(Map.Entry<String, Signal> entry : pSignals.entrySet())
+        {
+            int code = code(entry.getKey());
+            if(code >= 0 && code < dense.length)
+                dense[code] = entry.getValue();
+            else
+                sparse.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     Returns the signal whose identifier code is in the passed bytes.
+     @author Matthew Hicks
+     @param pBuf Buffer holding the identifier code.
+     @param pStart Index of the first byte of the code.
+     @param pLength Number of bytes in the code.
+     @return The signal, or null if the code is not in the index.
+    */
+    Signal get(ByteBuffer pBuf, int pStart, int pLength)
+    {
+        if(pLength <= MAX_DENSE_LENGTH)
+        {
+            int code = 0;
+            for(int index = pStart + pLength - 1; index >= pStart; --index)
+            {
+                int digit = pBuf.get(index) - '!';
+                if(digit < 0 || digit >= RADIX)
+                {
+                    code = -1;
+                    break;
+                }
+
+                code = (code * RADIX) + digit + 1;
+            }
+
+            if(code > 0 && code <= dense.length)
+                return dense[code - 1];
+        }
+
+        if(sparse.isEmpty())
+            return null;
+
+        char[] chars = new char[pLength];
+        for(int index = 0; index < pLength; ++index)
+            chars[index] = (char)(pBuf.get(pStart + index) & 0xFF);
+
+        return sparse.get(new String(chars));
+    }
+
+    // Bijective base 94 with the first character least significant, so that
+    // "!" is 0, "~" is 93, and "!!" is 94; -1 if the code does not fit
+    private static int code(String pSymbol)
+    {
+        if(pSymbol.length() == 0 || pSymbol.length() > MAX_DENSE_LENGTH)
+            return -1;
+
+        int code = 0;
+        for(int index = pSymbol.length() - 1; index >= 0; --index)
+        {
+            int digit = pSymbol.charAt(index) - '!';
+            if(digit < 0 || digit >= RADIX)
+                return -1;
+
+            code = (code * RADIX) + digit + 1;
+        }
+
+        return code - 1;
+    }
+}
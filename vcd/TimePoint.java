@@ -1,6 +1,8 @@
 package vcd;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  TimePoint objects represent a point in time that corresponds to a timespec in a
@@ -9,6 +11,11 @@ import java.util.ArrayList;
  were updated to.  This time focused way of tracking value updates contrasts with
  signal focused tracking as seen in {@link vcd.SignalHistory}.
  
+ The TimePoint objects of {@link vcd.VCD#collectTimes} are views of a
+ {@link TimeSeries}, made when asked for; they hold only the series and the
+ index of their timespec.  TimePoint objects constructed directly keep their
+ own list of tuples.
+ 
  @author Matthew Hicks
  @see SigVal
  @see SignalHistory
@@ -19,6 +26,10 @@ public class TimePoint
     private final long time;
     private final ArrayList<SigVal> pairs;
     
+    // Set for views of a series, in place of the list of pairs
+    private final TimeSeries series;
+    private final int point;
+    
     /**
      Constructs a new TimePoint object that represents the passed time with an
      empty list of signal name, value tuples.
@@ -32,6 +43,22 @@ public class TimePoint
     {
         time = pTime;
         pairs = new ArrayList<SigVal>(10);
+        series = null;
+        point = -1;
+    }
+    
+    /**
+     Constructs a view of a point in time of a series.
+     @author Matthew Hicks
+     @param pSeries The series.
+     @param pPoint Index of the point in the series.
+    */
+    TimePoint(TimeSeries pSeries, int pPoint)
+    {
+        time = pSeries.getTime(pPoint);
+        pairs = null;
+        series = pSeries;
+        point = pPoint;
     }
     
     /**
@@ -50,9 +77,13 @@ public class TimePoint
      
      @author Matthew Hicks
      @param pNewPair the tuple to append to the list of tuples
+     @throws java.lang.UnsupportedOperationException if this is a view of a
+     series, which cannot change
     */
     public void addPair(SigVal pNewPair)
     {
+        if(series != null)
+            throw new UnsupportedOperationException("ERROR: time points of a series cannot change");
         pairs.add(pNewPair);
     }
     
@@ -64,6 +95,8 @@ public class TimePoint
     */
     public int getPairCount()
     {
+        if(series != null)
+            return series.getFirstUpdate(point + 1) - series.getFirstUpdate(point);
         return pairs.size();
     }
     
@@ -80,17 +113,40 @@ public class TimePoint
     */
     public SigVal getPair(int pIndex)
     {
+        if(series != null)
+        {
+            if(pIndex < 0 || pIndex >= getPairCount())
+                throw new IndexOutOfBoundsException("ERROR: no pair " + pIndex);
+            return new SigVal(series, series.getFirstUpdate(point) + pIndex);
+        }
         return pairs.get(pIndex);
     }
     
     /**
      Returns the list of of signals and values updated during this moment in
-     time.
+     time.  For a view of a series, the list is a read-only view as well, and
+     throws UnsupportedOperationException if changed.
      @author Matthew Hicks
      @return A list of signal name, value tuples.
     */
-    public ArrayList<SigVal> getPairs()
+    public List<SigVal> getPairs()
     {
-        return pairs;
+        if(series == null)
+            return pairs;
+        
+        return new AbstractList<SigVal>()
+        {
+            @Override
+            public SigVal get(int pIndex)
+            {
+                return getPair(pIndex);
+            }
+            
+            @Override
+            public int size()
+            {
+                return getPairCount();
+            }
+        };
     }
 }
@@ -0,0 +1,258 @@
+package vcd;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ TimeSeries holds every value update of a VCD file grouped by timespec, as
+ collected by {@link vcd.VCD#collectTimes}.  The updates are stored time
+ major in flat arrays: the time of each timespec, the offset of its first
+ update, and for each update the number of its signal and the offset of its
+ value in a packed array of the value text as the VCD file wrote it.  So an
+ update costs a few bytes plus the text of its value, instead of a
+ {@link SigVal} and two Strings.
+
+ The series is also a list of {@link TimePoint} objects, one per timespec;
+ these and the {@link SigVal} objects they return are views made on demand,
+ so they cost nothing until asked for.
+
+ @author Matthew Hicks
+ @see TimePoint
+ @see SigVal
+ @see VCD#collectTimes
+*/
+public class TimeSeries extends AbstractList<TimePoint>
+{
+    // Time of each point and the index of its first update; firsts has
+    // one more entry, the end of the last point
+    private long[] times = new long[16];
+    private int[] firsts = new int[17];
+    private int pointCount = 0;
+
+    // Signal number and value offset of each update; valueEnds has one more
+    // entry, the end of the last value
+    private int[] updates = new int[64];
+    private int[] valueEnds = new int[65];
+    private byte[] valueBytes = new byte[256];
+    private int updateCount = 0;
+
+    // Symbols by signal number: the signals of the symbol table in index
+    // order, then any symbols the header did not declare
+    private final ArrayList<String> symbols;
+    private final HashMap<String, Integer> undeclared = new HashMap<String, Integer>();
+
+    /**
+     Constructs an empty series for the signals of a symbol table.
+     @author Matthew Hicks
+     @param pSignals The signals, in index order.
+    */
+    TimeSeries(Signal[] pSignals)
+    {
+        symbols = new ArrayList<String>(pSignals.length);
+        for(Signal sig : pSignals)
+            symbols.add(sig.getSymbol());
+    }
+
+    /**
+     Starts a new point in time, to which the following updates belong.
+     @author Matthew Hicks
+     @param pTime Time of the timespec.
+    */
+    void addPoint(long pTime)
+    {
+        if(pointCount == times.length)
+        {
+            times = Arrays.copyOf(times, pointCount + (pointCount >> 1) + 1);
+            firsts = Arrays.copyOf(firsts, times.length + 1);
+        }
+
+        times[pointCount++] = pTime;
+        firsts[pointCount] = updateCount;
+    }
+
+    /**
+     Appends the value change token last scanned by a lexer to the current
+     point in time.
+     @author Matthew Hicks
+     @param pSignal The signal named by the token's symbol, or null if the
+     header does not declare it.
+     @param pLexer Lexer whose last token is the change.
+     @throws java.io.IOException if there is no point in time yet, or the
+     values no longer fit in the series
+    */
+    void addUpdate(Signal pSignal, VCDLexer pLexer)throws IOException
+    {
+        if(pointCount == 0)
+            throw new IOException("ERROR: value change before the first timespec");
+
+        if(updateCount == updates.length)
+        {
+            if(updateCount == Integer.MAX_VALUE - 1)
+                throw new IOException("ERROR: too many value changes to collect");
+            updates = Arrays.copyOf(updates, (int)Math.min(Integer.MAX_VALUE - 1, updateCount + (updateCount >> 1) + 1L));
+            valueEnds = Arrays.copyOf(valueEnds, updates.length + 1);
+        }
+
+        int start = valueEnds[updateCount];
+        int length = pLexer.getValueLength();
+        if(valueBytes.length - start < length)
+        {
+            long grown = Math.max(start + (long)length, valueBytes.length + (valueBytes.length >> 1) + 1L);
+            if(grown > Integer.MAX_VALUE - 8)
+                throw new IOException("ERROR: too many value bytes to collect");
+            valueBytes = Arrays.copyOf(valueBytes, (int)grown);
+        }
+
+        updates[updateCount] = pSignal != null ? pSignal.getIndex() : undeclaredNumber(pLexer.getSymbolString());
+        valueEnds[updateCount + 1] = start + pLexer.copyValue(valueBytes, start);
+        firsts[pointCount] = ++updateCount;
+    }
+
+    // Gives symbols that the header does not declare numbers after those of
+    // the signals
+    private int undeclaredNumber(String pSymbol)
+    {
+        Integer number = undeclared.get(pSymbol);
+        if(number == null)
+        {
+            number = symbols.size();
+            symbols.add(pSymbol);
+            undeclared.put(pSymbol, number);
+        }
+
+        return number;
+    }
+
+    /**
+     Returns the number of points in time, one per timespec.
+     @author Matthew Hicks
+     @return Number of points.
+    */
+    public int getPointCount()
+    {
+        return pointCount;
+    }
+
+    /**
+     Returns the total number of value updates in all points in time.
+     @author Matthew Hicks
+     @return Number of updates.
+    */
+    public int getUpdateCount()
+    {
+        return updateCount;
+    }
+
+    /**
+     Returns the time of a point.
+     @author Matthew Hicks
+     @param pPoint Index of the point.
+     @return The time.
+    */
+    public long getTime(int pPoint)
+    {
+        checkPoint(pPoint);
+        return times[pPoint];
+    }
+
+    /**
+     Returns the index of the first update of a point.  The updates of a
+     point run from this up to the first update of the next point.
+     @author Matthew Hicks
+     @param pPoint Index of the point, or the number of points for the end of
+     the last point.
+     @return Index of the update.
+    */
+    public int getFirstUpdate(int pPoint)
+    {
+        if(pPoint < 0 || pPoint > pointCount)
+            throw new IndexOutOfBoundsException("ERROR: no point in time " + pPoint);
+        return firsts[pPoint];
+    }
+
+    /**
+     Returns the index of the signal set by an update, as given by
+     {@link vcd.Signal#getIndex}.  Symbols that the header does not declare
+     get numbers from the signal count up.
+     @author Matthew Hicks
+     @param pUpdate Index of the update.
+     @return The signal number.
+    */
+    public int getSignalNumber(int pUpdate)
+    {
+        checkUpdate(pUpdate);
+        return updates[pUpdate];
+    }
+
+    /**
+     Returns the symbol of the signal set by an update.
+     @author Matthew Hicks
+     @param pUpdate Index of the update.
+     @return The symbol as it appears in the VCD file.
+    */
+    public String getSymbol(int pUpdate)
+    {
+        checkUpdate(pUpdate);
+        return symbols.get(updates[pUpdate]);
+    }
+
+    /**
+     Returns the value set by an update, as the VCD file wrote it.
+     @author Matthew Hicks
+     @param pUpdate Index of the update.
+     @return The value, e.g., "1" or "b0101".
+    */
+    public String getValue(int pUpdate)
+    {
+        checkUpdate(pUpdate);
+        int start = valueEnds[pUpdate];
+        int length = valueEnds[pUpdate + 1] - start;
+
+        // Scalars share one String per state
+        String scalar = length == 1 ? VCDLexer.scalarString(valueBytes[start]) : null;
+        if(scalar != null)
+            return scalar;
+
+        return new String(valueBytes, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     Returns a view of a point in time.
+     @author Matthew Hicks
+     @param pPoint Index of the point.
+     @return The point.
+    */
+    @Override
+    public TimePoint get(int pPoint)
+    {
+        checkPoint(pPoint);
+        return new TimePoint(this, pPoint);
+    }
+
+    /**
+     Returns the number of points in time.
+     @author Matthew Hicks
+     @return Number of points.
+    */
+    @Override
+    public int size()
+    {
+        return pointCount;
+    }
+
+    private void checkPoint(int pPoint)
+    {
+        if(pPoint < 0 || pPoint >= pointCount)
+            throw new IndexOutOfBoundsException("ERROR: no point in time " + pPoint);
+    }
+
+    private void checkUpdate(int pUpdate)
+    {
+        if(pUpdate < 0 || pUpdate >= updateCount)
+            throw new IndexOutOfBoundsException("ERROR: no update " + pUpdate);
+    }
+}
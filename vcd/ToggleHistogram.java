@@ -0,0 +1,197 @@
+package vcd;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ ToggleHistogram keeps a histogram of how many signals toggled how many times
+ during the current window of a VCD file, updated as changes arrive.  It
+ counts the signals that have each exact toggle count, so a toggle moves one
+ signal from one count to the next, and binned snapshots are built from
+ those counts without sorting the signals.  Counts below a fixed limit are
+ kept in an array, so the common toggle is constant time; the few signals
+ busier than that are kept in a sorted map by count, so memory and the
+ cost of a snapshot depend on the number of signals, not on how often the
+ busiest one toggled.  Starting a new window only bumps an epoch; each
+ signal's count is treated as zero until it toggles in the new window.
+
+ Register a histogram with {@link vcd.VCD#setChangeListener} and call
+ {@link ToggleHistogram#reset} at the start of each window, e.g., from a
+ {@link TimeCallback}.
+
+ @author Matthew Hicks
+ @see ChangeListener
+*/
+public class ToggleHistogram implements ChangeListener
+{
+    private final int signalCount;
+
+    // Toggles of each signal in the window, valid if its epoch is current
+    private final long[] toggles;
+    private final int[] epochs;
+    private int epoch = 1;
+
+    // Toggle counts below this are kept in signalsWithToggles
+    private static final int DENSE_LIMIT = 1 << 12;
+
+    // Number of signals with each toggle count in the window; counts of
+    // DENSE_LIMIT or more are in busySignals
+    private int[] signalsWithToggles = new int[64];
+    private final TreeMap<Long, Integer> busySignals = new TreeMap<Long, Integer>();
+    private long maxToggles = 0;
+
+    /**
+     Constructs a histogram over signals indexed from 0 to pSignalCount - 1.
+     @author Matthew Hicks
+     @param pSignalCount Number of signals; see {@link vcd.VCD#getSignalCount}.
+    */
+    public ToggleHistogram(int pSignalCount)
+    {
+        signalCount = pSignalCount;
+        toggles = new long[pSignalCount];
+        epochs = new int[pSignalCount];
+        signalsWithToggles[0] = pSignalCount;
+    }
+
+    /**
+     Counts a toggle of the changed signal.
+     @author Matthew Hicks
+     @param pIndex Index of the signal.
+     @param pAval Unused.
+     @param pBval Unused.
+     @param pTime Unused.
+    */
+    public void valueChanged(int pIndex, long pAval, long pBval, long pTime)
+    {
+        if(epochs[pIndex] != epoch)
+        {
+            epochs[pIndex] = epoch;
+            toggles[pIndex] = 0;
+        }
+
+        long count = toggles[pIndex]++;
+        if(count + 1 < DENSE_LIMIT)
+        {
+            if(count + 1 >= signalsWithToggles.length)
+                signalsWithToggles = Arrays.copyOf(signalsWithToggles, Math.min(DENSE_LIMIT, signalsWithToggles.length << 1));
+
+            signalsWithToggles[(int)count]--;
+            signalsWithToggles[(int)count + 1]++;
+        }
+        else
+        {
+            if(count < DENSE_LIMIT)
+                signalsWithToggles[(int)count]--;
+            else
+                removeBusy(count);
+            busySignals.merge(count + 1, 1, Integer::sum);
+        }
+        maxToggles = Math.max(maxToggles, count + 1);
+    }
+
+    // Takes one signal away from a toggle count in busySignals
+    private void removeBusy(long pToggles)
+    {
+        int signals = busySignals.get(pToggles);
+        if(signals == 1)
+            busySignals.remove(pToggles);
+        else
+            busySignals.put(pToggles, signals - 1);
+    }
+
+    /**
+     Does nothing; toggles are counted as they arrive.
+     @author Matthew Hicks
+     @param pTime Unused.
+     @param pDirty Unused.
+     @param pDirtyCount Unused.
+    */
+    public void timestepEnd(long pTime, int[] pDirty, int pDirtyCount)
+    {
+    }
+
+    /**
+     Starts a new window in which no signal has toggled yet.
+     @author Matthew Hicks
+    */
+    public void reset()
+    {
+        ++epoch;
+        Arrays.fill(signalsWithToggles, 0, (int)Math.min(maxToggles + 1, signalsWithToggles.length), 0);
+        signalsWithToggles[0] = signalCount;
+        busySignals.clear();
+        maxToggles = 0;
+    }
+
+    /**
+     Returns the number of signals the histogram covers.
+     @author Matthew Hicks
+     @return Number of signals.
+    */
+    public int getSignalCount()
+    {
+        return signalCount;
+    }
+
+    /**
+     Returns the largest number of times any signal toggled in the window.
+     @author Matthew Hicks
+     @return The largest toggle count.
+    */
+    public long getMaxToggles()
+    {
+        return maxToggles;
+    }
+
+    /**
+     Returns the number of signals that toggled exactly pToggles times in
+     the window.
+     @author Matthew Hicks
+     @param pToggles A toggle count.
+     @return Number of signals.
+    */
+    public int getSignalsWithToggles(long pToggles)
+    {
+        if(pToggles < 0 || pToggles > maxToggles)
+            return 0;
+        if(pToggles >= DENSE_LIMIT)
+            return busySignals.getOrDefault(pToggles, 0);
+        return signalsWithToggles[(int)pToggles];
+    }
+
+    /**
+     Returns the range of toggle counts covered by each bin when the window
+     is split into pBinCount bins.
+     @author Matthew Hicks
+     @param pBinCount Number of bins.
+     @return Toggle counts per bin.
+    */
+    public long getBinSize(int pBinCount)
+    {
+        return maxToggles / pBinCount + 1;
+    }
+
+    /**
+     Returns the number of signals in each of pBinCount equal bins of
+     toggle counts.  Bin 0 holds the signals with at most getBinSize
+     toggles and bin i holds those with more than i * getBinSize and at
+     most (i + 1) * getBinSize toggles.
+     @author Matthew Hicks
+     @param pBinCount Number of bins.
+     @return Number of signals in each bin.
+    */
+    public int[] getBins(int pBinCount)
+    {
+        int[] bins = new int[pBinCount];
+        long binSize = getBinSize(pBinCount);
+
+        bins[0] = signalsWithToggles[0];
+        for(int count = 1; count <= maxToggles && count < signalsWithToggles.length; ++count)
+            bins[(int)((count - 1) / binSize)] += signalsWithToggles[count];
+        for(Map.Entry<Long, Integer> busy : busySignals.entrySet())
+            bins[(int)((busy.getKey() - 1) / binSize)] += busy.getValue();
+
+        return bins;
+    }
+}
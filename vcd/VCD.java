@@ -1,13 +1,25 @@
 package vcd;
 
-import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.File;
 import java.util.zip.GZIPInputStream;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import vcd.*;
 
 /**
@@ -31,18 +43,49 @@ public class VCD
 
     // Set by caller to public method
     private TimeCallback timeUpdateCallback = null;
+    private int parsingThreads = 1;
+    private SignalFilter signalFilter = null;
+    private ChangeListener changeListener = null;
+    private boolean cacheEnabled = false;
+
+    // Size of the blocks read backwards from the end of raw VCD files
+    private static final int TAIL_BLOCK_SIZE = 1 << 16;
+    
+    // Size of the pieces of the values section parsed in parallel
+    private static final long CHUNK_SIZE = 1 << 23;
 
     // For internal tracking
     private BufferedReader file = null;
-    private TimePoint currentTimePoint = null;
     private long lastTime = -1;
+    
+    // Byte offsets of the lines following $enddefinitions, $dumpvars, and
+    // the $end of the initial values section (i.e., the first timespec)
+    private long headerEndOffset = -1;
+    private long initialValuesOffset = -1;
+    private long valuesOffset = -1;
 
-    // List of update times
-    public ArrayList<TimePoint> timeSeries;
+    // List of update times, one per timespec, viewing the flat store
+    public List<TimePoint> timeSeries;
+    private TimeSeries collectedTimes;
     
     // Create a hashmap of signals in the vcd
     public HashMap<String, Signal> signals;
     
+    // Resolves symbols in the values section without allocating
+    private SymbolIndex symbolIndex;
+    
+    // Signals by index, in declaration order
+    private Signal[] signalTable;
+    
+    // Random access index of a gzipped VCD file, null until loaded or built
+    private GzipIndex gzipIndex = null;
+    
+    // Offsets of the value changes of each signal, null until built
+    private ChangeIndex changeIndex = null;
+    
+    // Names declared in the header, null until the header is read
+    private NameIndex nameIndex = null;
+    
     /**
      Constructor that takes the name of a vcd file to process.
      Uses a stateless signal {@link Signal}.
@@ -78,23 +121,176 @@ public class VCD
 
     // Functions that move to given sections in the VCD file
     private void seekHeader()throws IOException
+    {
+        seekTo(0);
+    }
+    
+    // Positions the reader at the passed byte offset of the VCD file
+    private void seekTo(long pOffset)throws IOException
     {
         if(file != null)
             file.close();
         
+        file = new BufferedReader(new InputStreamReader(openStreamAt(pOffset)));
+    }
+    
+    // Opens a byte stream at the passed offset of the (uncompressed) VCD file
+    // Offsets past the start of gzipped files need the gzip index
+    private InputStream openStreamAt(long pOffset)throws IOException
+    {
+        if(!isRawVCD() && gzipIndex != null)
+            return gzipIndex.open(vcdFile, pOffset);
+        
+        InputStream in = openStream();
+        if(pOffset > 0)
+            ((FileInputStream)in).getChannel().position(pOffset);
+        
+        return in;
+    }
+    
+    // Opens a byte stream at the start of the VCD file
+    private InputStream openStream()throws IOException
+    {
         // Can silently handle raw VCD files and gzipped VCD files
         if(vcdFile.endsWith(".vcd.gz"))
-            file = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(vcdFile))));
+            return new GZIPInputStream(new FileInputStream(vcdFile), 1 << 16);
         else if(vcdFile.endsWith(".vcd"))
-            file = new BufferedReader(new FileReader(vcdFile));
+            return new FileInputStream(vcdFile);
         else
         {
             throw new IOException("ERROR: File must end in .vcd or .vcd.gz");
         }
     }
     
+    // Raw VCD files are memory mapped and can be jumped around in
+    private boolean isRawVCD()
+    {
+        return vcdFile.endsWith(".vcd");
+    }
+    
+    private FileChannel openChannel()throws IOException
+    {
+        return FileChannel.open(Paths.get(vcdFile), StandardOpenOption.READ);
+    }
+    
+    // Returns a lexer positioned at the start of the times and values section
+    private VCDLexer openValuesLexer()throws IOException
+    {
+        if(!isRawVCD())
+        {
+            if(hasSectionOffsets())
+                return new VCDLexer(openStreamAt(valuesOffset));
+            
+            VCDLexer lexer = new VCDLexer(openStream());
+            findSections(lexer);
+            return lexer;
+        }
+        
+        // Only the first pass through a raw file has to look for the values
+        if(valuesOffset != -1)
+            return new VCDLexer(openChannel(), valuesOffset);
+        
+        VCDLexer lexer = new VCDLexer(openChannel(), 0);
+        findSections(lexer);
+        return lexer;
+    }
+    
+    // Scans a lexer from the start of the file to the start of the times and
+    // values section, recording the offsets of each section along the way
+    private void findSections(VCDLexer pLexer)throws IOException
+    {
+        findInitialValues(pLexer);
+        
+        if(!pLexer.skipPast("$end"))
+            throw new IOException("ERROR: no times and values section");
+        valuesOffset = pLexer.skipLine();
+    }
+    
+    // Scans a lexer from the start of the file to the start of the initial
+    // values section, recording the offsets of the sections before it
+    private void findInitialValues(VCDLexer pLexer)throws IOException
+    {
+        if(!pLexer.skipPast("$enddefinitions"))
+            throw new IOException("ERROR: no end of definitions in the header");
+        headerEndOffset = pLexer.skipLine();
+        
+        if(!pLexer.skipPast("$dumpvars"))
+            throw new IOException("ERROR: no initial values (dumpvars) section");
+        initialValuesOffset = pLexer.skipLine();
+    }
+    
+    // Returns a lexer positioned at the passed offset of a raw VCD file
+    VCDLexer openLexerAt(long pOffset)throws IOException
+    {
+        if(!isRawVCD())
+            throw new IOException("ERROR: Only raw VCD files can be read at an offset");
+        
+        return new VCDLexer(openChannel(), pOffset);
+    }
+    
+    // Returns a lexer positioned just after the header, so that the initial
+    // values section and the times and values section are read in one pass
+    private VCDLexer openBodyLexer()throws IOException
+    {
+        if(isRawVCD())
+        {
+            indexSections();
+            return new VCDLexer(openChannel(), headerEndOffset);
+        }
+        
+        if(hasSectionOffsets())
+            return new VCDLexer(openStreamAt(headerEndOffset));
+        
+        VCDLexer lexer = new VCDLexer(openStream());
+        if(!lexer.skipPast("$enddefinitions"))
+            throw new IOException("ERROR: no end of definitions in the header");
+        headerEndOffset = lexer.skipLine();
+        return lexer;
+    }
+    
+    // Records the section offsets of a raw VCD file, once
+    private void indexSections()throws IOException
+    {
+        if(valuesOffset != -1)
+            return;
+        
+        VCDLexer lexer = new VCDLexer(openChannel(), 0);
+        findSections(lexer);
+        lexer.close();
+    }
+    
+    // Raw VCD files are indexed on demand; gzipped VCD files only know their
+    // section offsets once they have a gzip index
+    private boolean hasSectionOffsets()throws IOException
+    {
+        if(isRawVCD())
+        {
+            indexSections();
+            return true;
+        }
+        
+        if(gzipIndex == null)
+        {
+            gzipIndex = GzipIndex.load(vcdFile);
+            if(gzipIndex == null)
+                return false;
+            
+            headerEndOffset = gzipIndex.getHeaderEndOffset();
+            initialValuesOffset = gzipIndex.getInitialValuesOffset();
+            valuesOffset = gzipIndex.getValuesOffset();
+        }
+        
+        return valuesOffset != -1;
+    }
+    
     private void seekInitialValues()throws IOException
     {
+        if(hasSectionOffsets())
+        {
+            seekTo(initialValuesOffset);
+            return;
+        }
+        
         seekHeader();
         
         String line;
@@ -111,6 +307,12 @@ public class VCD
     
     private void seekValues()throws IOException
     {
+        if(hasSectionOffsets())
+        {
+            seekTo(valuesOffset);
+            return;
+        }
+        
         // Go past the header and the init vals section
         seekInitialValues();
         
@@ -243,6 +445,12 @@ public class VCD
     
     /**
      Searches the tail of this VCD file for the last timespec and returns it.
+     Raw VCD files are read backwards from their end.  Gzipped VCD files take
+     the time from their index (see {@link vcd.VCD#buildIndex}), and are
+     otherwise decompressed once to find it.  The time and the offsets of the
+     file's sections are then saved next to the file (as file.vcd.gz.idx),
+     without any inflate checkpoints, so later runs do not decompress it
+     again.
      
      @author Matthew Hicks
      @return a time in the simulator's timescale
@@ -253,47 +461,247 @@ public class VCD
     {
         if(this.lastTime != -1)
             return this.lastTime;
-            
-        seekValues();
         
-        // Get the number of chars in the values section
-        long totalChars = file.skip(Long.MAX_VALUE);
+        if(isRawVCD())
+            return (this.lastTime = findLastTimeFromTail());
+        
+        if(hasSectionOffsets() && gzipIndex.getLastTime() != -1)
+            return (this.lastTime = gzipIndex.getLastTime());
         
-        // Binary search for a tail of the file with a time in it
-        for(long tail = 1000; ; tail <<= 1)
+        this.lastTime = findLastTimeFromStream();
+        if(gzipIndex == null)
+            saveLastTime();
+        return this.lastTime;
+    }
+    
+    // Saves a gzip index with only the last time and the section offsets,
+    // which is all getLastTime needs.  The sidecar is only a cache, so
+    // failing to write it is not an error.
+    private void saveLastTime()
+    {
+        try
         {
-            // Reset the stream and try a new skip distance
-            seekValues();
-            
-            if(tail > totalChars)
-                file.skip(0);
+            GzipIndex index = GzipIndex.create(vcdFile);
+            index.setSections(headerEndOffset, initialValuesOffset, valuesOffset);
+            index.setLastTime(this.lastTime);
+            index.save(vcdFile);
+            gzipIndex = index;
+        }
+        catch(IOException ioe)
+        {
+            ;
+        }
+    }
+    
+    /**
+     Builds the random access index of a gzipped VCD file and saves it next
+     to the file (as file.vcd.gz.idx).  The index records the offsets of the
+     file's sections, its last time, and an inflate checkpoint every
+     pMegabytes of uncompressed data, mapped to simulation times.  Later
+     seeks into the file, in this or any other run, decompress from the
+     nearest checkpoint instead of from the start of the file.  Raw VCD files
+     are random access already and only have their sections located.
+     
+     @author Matthew Hicks
+     @param pMegabytes uncompressed megabytes between checkpoints
+     @throws java.io.IOException if anything goes wrong while processing the
+     file or writing the index
+    */
+    public void buildIndex(int pMegabytes)throws IOException
+    {
+        if(isRawVCD())
+        {
+            indexSections();
+            return;
+        }
+        
+        indexGzip(pMegabytes).save(vcdFile);
+    }
+    
+    // Decompresses a gzipped VCD file once, taking inflate checkpoints and
+    // recording its sections and timespecs, and makes the result the index.
+    // Value changes are tracked on copies of the signals, which are written
+    // out as the snapshot of each checkpoint.
+    private GzipIndex indexGzip(int pMegabytes)throws IOException
+    {
+        // Snapshots cover every signal, whatever the filter
+        HashMap<String, Signal> shadows = readSymbolTable(null, false, null);
+        SymbolIndex shadowIndex = new SymbolIndex(shadows);
+        
+        GzipIndex index = GzipIndex.create(vcdFile);
+        index.setCheckpointSpacing((long)Math.max(1, pMegabytes) << 20);
+        
+        VCDLexer lexer = new VCDLexer(new GzipInflater(vcdFile, index));
+        findInitialValues(lexer);
+        
+        long currentTime = 0;
+        long last = -1;
+        long values = -1;
+        int token;
+        while((token = lexer.next()) != VCDLexer.EOF)
+        {
+            if(token == VCDLexer.TIME)
+            {
+                currentTime = last = lexer.getTime();
+                long offset = lexer.getTokenOffset();
+                if(index.needsSnapshot(offset))
+                    index.addTime(currentTime, offset, snapshot(shadows.values()));
+            }
+            else if(token == VCDLexer.KEYWORD)
+            {
+                // The first $end closes the initial values section
+                if(values == -1 && lexer.isKeyword("$end"))
+                    values = lexer.skipLine();
+                else
+                    lexer.skipKeyword();
+            }
             else
-                file.skip(totalChars - tail);
-
-            // Search the tail for a time
-            String line;
-            String lastTime = null;
-            while((line = file.readLine()) != null)
             {
-                if(isTimespec(line))
-                {
-                    lastTime = line.substring(1);
-                }
+                lexer.restoreTo(lexer.lookup(shadowIndex), currentTime);
             }
+        }
+        lexer.close();
+        
+        if(values == -1)
+            throw new IOException("ERROR: no times and values section");
+        if(last == -1)
+            throw new IOException("ERROR: No times found in the VCD file");
+        
+        valuesOffset = values;
+        index.setSections(headerEndOffset, initialValuesOffset, valuesOffset);
+        index.setLastTime(last);
+        this.lastTime = last;
+        gzipIndex = index;
+        return index;
+    }
+    
+    // Writes the current value of each signal as a VCD value change, under
+    // a timespec of the time the signal was last updated
+    private static byte[] snapshot(Collection<Signal> pSignals)
+    {
+        ArrayList<Signal> set = new ArrayList<Signal>(pSignals.size());
+        for(Signal sig : pSignals)
+        {
+            if(sig.getValue() != null)
+                set.add(sig);
+        }
+        set.sort((Signal sig1, Signal sig2) -> Long.compare(sig1.getTimeOfLastUpdate(), sig2.getTimeOfLastUpdate()));
+        
+        StringBuilder changes = new StringBuilder();
+        long time = -1;
+        for(Signal sig : set)
+        {
+            if(sig.getTimeOfLastUpdate() != time)
+            {
+                time = sig.getTimeOfLastUpdate();
+                changes.append('#').append(time).append('\n');
+            }
+            
+            // Only scalar values have a single character
+            String value = sig.getValue();
+            changes.append(value);
+            if(value.length() > 1)
+                changes.append(' ');
+            changes.append(sig.getSymbol()).append('\n');
+        }
+        
+        return changes.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    // Decompresses the times and values section of a gzipped VCD file,
+    // keeping only the last timespec
+    private long findLastTimeFromStream()throws IOException
+    {
+        VCDLexer lexer = openValuesLexer();
+        
+        long last = -1;
+        try
+        {
+            int token;
+            while((token = lexer.next()) != VCDLexer.EOF)
+            {
+                if(token == VCDLexer.TIME)
+                    last = lexer.getTime();
+                else if(token == VCDLexer.KEYWORD)
+                    lexer.skipKeyword();
+            }
+        }
+        finally
+        {
+            lexer.close();
+        }
+        
+        if(last == -1)
+            throw new IOException("ERROR: No times found in the VCD file");
+        return last;
+    }
+    
+    // Reads a raw VCD file backwards, one block at a time, until it finds a
+    // line that starts with a timespec
+    private long findLastTimeFromTail()throws IOException
+    {
+        indexSections();
+        
+        FileChannel channel = openChannel();
+        ByteBuffer block = ByteBuffer.allocate(TAIL_BLOCK_SIZE);
+        
+        long end = channel.size();
+        while(end > valuesOffset)
+        {
+            long start = Math.max(valuesOffset, end - TAIL_BLOCK_SIZE);
+            block.clear();
+            block.limit((int)(end - start));
+            while(block.hasRemaining() && channel.read(block, start + block.position()) > 0)
+                ;
             
-            // Return the last time if this tail had one
-            if(lastTime != null)
+            // The first byte of the block is only checked once its
+            // predecessor is known, i.e., in the next block
+            int first = (start == valuesOffset) ? 0 : 1;
+            for(int index = block.position() - 1; index >= first; --index)
             {
-                return (this.lastTime = Long.parseLong(lastTime));
+                if(block.get(index) != '#')
+                    continue;
+                if(index > 0 && block.get(index - 1) != '\n' && block.get(index - 1) != '\r')
+                    continue;
+                
+                long time = parseTimespec(channel, start + index);
+                if(time != -1)
+                {
+                    channel.close();
+                    return time;
+                }
             }
             
-            if(tail > totalChars)
-                break;
+            end = start + first;
         }
         
+        channel.close();
         throw new IOException("ERROR: No times found in the VCD file");
     }
     
+    // Parses the timespec at the passed offset, -1 if it is not one
+    private static long parseTimespec(FileChannel pChannel, long pOffset)throws IOException
+    {
+        ByteBuffer digits = ByteBuffer.allocate(24);
+        pChannel.read(digits, pOffset + 1);
+        
+        long time = 0;
+        int index;
+        for(index = 0; index < digits.position(); ++index)
+        {
+            byte b = digits.get(index);
+            if(b < '0' || b > '9')
+                break;
+            
+            time = (time * 10) + (b - '0');
+        }
+        
+        if(index == 0 || (index < digits.position() && digits.get(index) > ' '))
+            return -1;
+        
+        return time;
+    }
+    
     // Create a table of signals in the VCD
     // Each signal has a name and a symbol
     private void createSymbolTable()throws IOException
@@ -301,7 +709,25 @@ public class VCD
         if(signals != null)
             return;
         
-        signals = new HashMap<String, Signal>(2000);
+        // The name index covers every declaration, so one filter's pass
+        // serves them all
+        NameIndex names = nameIndex == null ? new NameIndex() : null;
+        signals = readSymbolTable(signalFilter, SAVE_ALL_VALUES, names);
+        if(names != null)
+            nameIndex = names;
+        symbolIndex = new SymbolIndex(signals);
+        
+        signalTable = signals.values().toArray(new Signal[signals.size()]);
+        for(int index = 0; index < signalTable.length; ++index)
+            signalTable[index].setIndex(index);
+    }
+    
+    // Reads the header into a table of signals keyed by their symbols,
+    // leaving out signals that the filter (if any) rejects, and records every
+    // declaration in the name index, if one is passed
+    private HashMap<String, Signal> readSymbolTable(SignalFilter pFilter, boolean pCompleteHistory, NameIndex pNames)throws IOException
+    {
+        HashMap<String, Signal> table = new LinkedHashMap<String, Signal>(2000);
         
         seekHeader();
         
@@ -311,17 +737,21 @@ public class VCD
         {
             if(isEndOfHeader(line))
             {
-                return;
+                break;
             }
             
             // Keep track of scope for full path signal names
             if(isDownScope(line))
             {
                 currentPath += "/" + line.split(" ")[2];
+                if(pNames != null)
+                    pNames.downScope(line.split(" ")[2]);
             }
             else if(isUpScope(line))
             {
                 currentPath = currentPath.substring(0, currentPath.lastIndexOf('/'));
+                if(pNames != null)
+                    pNames.upScope();
             }
             if(isVarDecl(line))
             {
@@ -331,21 +761,30 @@ public class VCD
                 if(parts.length != 6 && parts.length != 7)
                     throw new IOException("ERROR: Variable declaration not in a useable format: " +  line);
                 
+                SignalType st = parts[1].startsWith("real") ? SignalType.real : (parts[1].charAt(0) == 'r') ? SignalType.reg : SignalType.wire;
+                String slice = parts.length == 7 ? parts[5] : "";
+                if(pNames != null)
+                    pNames.add(parts[4], slice, st, parts[3]);
+                
+                int bits = Integer.parseInt(parts[2]);
+                Signal sig = new Signal(currentPath + "/", parts[4] + slice, st, bits, parts[3]);
+                if(pFilter != null && !pFilter.accept(sig))
+                    continue;
+                
                 // VCD allows same symbol for mult signals if they are the same
-                // We want the one higher-up in the hierarchy
-                if(signals.get(parts[3]) == null)
-                {
-                    SignalType st = (parts[1].charAt(0) == 'r') ? SignalType.reg : SignalType.wire;
-                    String slice = parts.length == 7 ? parts[5] : "";
-                    int bits = Integer.parseInt(parts[2]);
-
-		    if(SAVE_ALL_VALUES)
-			signals.put(parts[3], new SignalHistory(currentPath + "/", parts[4] + slice, st, bits, parts[3]));
-		    else
-			signals.put(parts[3], new Signal(currentPath + "/", parts[4] + slice, st, bits, parts[3]));
-                }
+                // We want the one higher-up in the hierarchy that the filter
+                // keeps, with the rest as its aliases
+                Signal existing = table.get(parts[3]);
+                if(existing != null)
+                    existing.addAlias(sig.getName());
+                else if(pCompleteHistory)
+                    table.put(parts[3], new SignalHistory(currentPath + "/", parts[4] + slice, st, bits, parts[3]));
+                else
+                    table.put(parts[3], sig);
             }
         }
+        
+        return table;
     }
     
     /**
@@ -354,7 +793,13 @@ public class VCD
      and updates the signals while processing the VCD file's values section.
      Calls the {@link vcd.TimeCallback#timeUpdate} of the object last passed to
      {@link vcd.VCD#setTimeUpdateCallback} for every timespec update or skips
-     the callback if the callback object was never set.
+     the callback if the callback object was never set.  The initial values
+     in $dumpvars, and the values in any later $dumpall, $dumpon, or $dumpoff
+     block, set the signals without counting as toggles.  Raw VCD files are
+     parsed in parallel if {@link vcd.VCD#setParsingThreads} was passed more
+     than one thread.  If {@link vcd.VCD#setCacheEnabled} turned on the
+     value cache, the first read of a file writes its values to the cache and
+     later reads load them from there instead of parsing the file.
      
      @author Matthew Hicks
      @throws java.io.IOException if anything goes wrong while processing the
@@ -362,39 +807,401 @@ public class VCD
      */
     public void readValuesFromVCD()throws IOException
     {
+        // The cache only holds what a plain read with histories computes
+        boolean cacheable = cacheEnabled && SAVE_ALL_VALUES && signalFilter == null && timeUpdateCallback == null && changeListener == null;
+        if(cacheable && readCache())
+            return;
+        
         createSymbolTable();
         
-        seekValues();
+        ValueCache.TimeRecorder recorder = cacheable ? new ValueCache.TimeRecorder() : null;
+        TimeCallback callback = cacheable ? recorder : timeUpdateCallback;
+        
+        if(parsingThreads > 1 && isRawVCD())
+            readValuesInParallel(callback);
+        else
+            readValuesSerially(callback);
+        
+        if(cacheable)
+        {
+            try
+            {
+                ValueCache.save(vcdFile, signalTable, recorder.getTimes(), recorder.getCount());
+            }
+            catch(IOException ioe)
+            {
+                // The cache is only an optimization
+            }
+        }
+    }
+    
+    // Fills in the signals from the value cache, returning false if there
+    // is no up to date cache for this file
+    private boolean readCache()
+    {
+        ValueCache cache = ValueCache.load(vcdFile, signalTable);
+        if(cache == null)
+            return false;
+        
+        if(signals == null)
+        {
+            signalTable = cache.getSignals();
+            signals = new LinkedHashMap<String, Signal>(signalTable.length * 2);
+            for(int index = 0; index < signalTable.length; ++index)
+            {
+                signalTable[index].setIndex(index);
+                signals.put(signalTable[index].getSymbol(), signalTable[index]);
+            }
+            symbolIndex = new SymbolIndex(signals);
+        }
+        
+        long[] times = cache.getTimes();
+        if(times.length > 0)
+            lastTime = times[times.length - 1];
+        
+        return true;
+    }
+    
+    // Parses the body of the file in one pass
+    private void readValuesSerially(TimeCallback pTCB)throws IOException
+    {        
+        VCDLexer lexer = openBodyLexer();
+        ChangeTracker tracker = createChangeTracker();
         
         long currentTime = 0;
-        String line;
-        while((line = file.readLine()) != null)
+        boolean inDump = false;
+        int token;
+        while((token = lexer.next()) != VCDLexer.EOF)
         {
-            String[] parts = line.split(" ");
-            
             // Check for new time points
-            if(isTimespec(line))
+            if(token == VCDLexer.TIME)
             {
-                currentTime = Long.parseLong(line.substring(1));
+                currentTime = lexer.getTime();
+                if(tracker != null)
+                    tracker.startStep(currentTime);
                 
                 // If there is a callback, then call it
-                if(timeUpdateCallback != null)
-                    timeUpdateCallback.timeUpdate(currentTime);
+                if(pTCB != null)
+                    pTCB.timeUpdate(currentTime);
+            }
+            else if(token == VCDLexer.KEYWORD)
+            {
+                // Values in $dumpvars and friends are state, not changes
+                if(lexer.isDumpKeyword())
+                    inDump = true;
+                else if(inDump && lexer.isKeyword("$end"))
+                    inDump = false;
+                else
+                    lexer.skipKeyword();
+            }
+            else if(inDump)
+            {
+                Signal signal = lexer.lookup(symbolIndex);
+                lexer.dumpTo(signal, currentTime);
+                if(tracker != null && signal != null)
+                    tracker.dumped(signal);
+            }
+            else
+            {
+                Signal signal = lexer.lookup(symbolIndex);
+                lexer.applyTo(signal, currentTime);
+                if(tracker != null && signal != null)
+                    tracker.changed(signal, currentTime);
+            }
+        }
+        
+        if(tracker != null)
+            tracker.finish();
+        lexer.close();
+        
+        updateCounters(currentTime);
+    }
+    
+    // Credits every signal's final value with the time it was held
+    private void updateCounters(long pTime)
+    {
+        for(Signal sig : signalTable)
+            sig.updateCounters(pTime);
+    }
+    
+    // Returns a tracker for the change listener, or null if there is none
+    private ChangeTracker createChangeTracker()
+    {
+        return changeListener == null ? null : new ChangeTracker(changeListener, signalTable.length);
+    }
+    
+    /**
+     Reads only the value updates in the time window [pFromTime, pToTime).
+     The counters and histories left by any earlier read are cleared, then
+     every signal is set to its value as of pFromTime without counting
+     the update, so the performance counters and {@link SignalHistory}
+     histories only cover the window (as does the time in each state, which
+     is counted up to the end of the window); signals that have no value by
+     then are left unset.  The callback set by {@link vcd.VCD#setTimeUpdateCallback}
+     is called for each timespec in the window, as is the change listener
+     (see {@link vcd.VCD#setChangeListener}), and reading stops at the first
+     timespec at or after pToTime.  Gzipped VCD files with an index
+     (see {@link vcd.VCD#buildIndex}) rebuild the state from the nearest
+     checkpoint; everything else replays the file up to pFromTime.
+     
+     @author Matthew Hicks
+     @param pFromTime first time of the window
+     @param pToTime time just after the window
+     @throws java.io.IOException if anything goes wrong while processing the
+     file
+    */
+    public void readValues(long pFromTime, long pToTime)throws IOException
+    {
+        createSymbolTable();
+        for(Signal sig : signals.values())
+            sig.clearAll();
+        
+        VCDLexer lexer;
+        long currentTime = 0;
+        int checkpoint = -1;
+        if(!isRawVCD() && hasSectionOffsets())
+            checkpoint = gzipIndex.findCheckpoint(pFromTime);
+        
+        if(checkpoint != -1)
+        {
+            currentTime = gzipIndex.getCheckpointTime(checkpoint);
+            
+            // Each signal gets back the time it was last updated
+            VCDLexer snapshot = new VCDLexer(gzipIndex.openSnapshot(checkpoint));
+            long updateTime = currentTime;
+            int token;
+            while((token = snapshot.next()) != VCDLexer.EOF)
+            {
+                if(token == VCDLexer.TIME)
+                    updateTime = snapshot.getTime();
+                else
+                    snapshot.restoreTo(snapshot.lookup(symbolIndex), updateTime);
+            }
+            snapshot.close();
+            
+            lexer = new VCDLexer(openStreamAt(gzipIndex.getCheckpointTimeOffset(checkpoint)));
+        }
+        else
+        {
+            lexer = openBodyLexer();
+        }
+        
+        ChangeTracker tracker = createChangeTracker();
+        boolean inWindow = false;
+        boolean inDump = false;
+        long endTime = -1;
+        int token;
+        while((token = lexer.next()) != VCDLexer.EOF)
+        {
+            if(token == VCDLexer.TIME)
+            {
+                currentTime = lexer.getTime();
+                if(currentTime >= pToTime)
+                {
+                    endTime = pToTime;
+                    break;
+                }
+                
+                if(currentTime >= pFromTime)
+                {
+                    if(!inWindow)
+                        startCounting(pFromTime);
+                    inWindow = true;
+                    if(tracker != null)
+                        tracker.startStep(currentTime);
+                    if(timeUpdateCallback != null)
+                        timeUpdateCallback.timeUpdate(currentTime);
+                }
             }
-            // One bit signals have no space between value and symbol
-            else if(parts.length == 1)
+            else if(token == VCDLexer.KEYWORD)
             {
-                signals.get(line.substring(1)).setValue("" + line.charAt(0), currentTime);
+                if(lexer.isDumpKeyword())
+                    inDump = true;
+                else if(inDump && lexer.isKeyword("$end"))
+                    inDump = false;
+                else
+                    lexer.skipKeyword();
             }
-            else if(parts.length == 2)
+            else if(inWindow && inDump)
             {
-                signals.get(parts[1]).setValue(parts[0], currentTime);
+                Signal signal = lexer.lookup(symbolIndex);
+                lexer.dumpTo(signal, currentTime);
+                if(tracker != null && signal != null)
+                    tracker.dumped(signal);
+            }
+            else if(inWindow)
+            {
+                Signal signal = lexer.lookup(symbolIndex);
+                lexer.applyTo(signal, currentTime);
+                if(tracker != null && signal != null)
+                    tracker.changed(signal, currentTime);
             }
             else
             {
-                System.err.println("ERROR: Something went wrong with reading the VCD values");
-                System.exit(1);
+                lexer.restoreTo(lexer.lookup(symbolIndex), currentTime);
+            }
+        }
+        
+        if(tracker != null)
+            tracker.finish();
+        lexer.close();
+        
+        if(!inWindow)
+            startCounting(pFromTime);
+        updateCounters(endTime == -1 ? Math.max(currentTime, pFromTime) : endTime);
+    }
+    
+    /**
+     Writes the value changes in the time window [pFromTime, pToTime) to a
+     new VCD file.  Only the signals kept by the filter set with
+     {@link vcd.VCD#setSignalFilter} are written, under new identifier codes
+     that are as short as possible.  The value of every signal at pFromTime
+     goes into a $dumpvars block, and changes that leave a signal with the
+     value it had at the end of the previous timestep are dropped, as are
+     timesteps with nothing left in them.  The file is read as by
+     {@link vcd.VCD#readValues}, which leaves the signals, their histories,
+     and their counters covering the window.
+     
+     @author Matthew Hicks
+     @param pFileName name of the VCD file to write
+     @param pGzip whether to gzip the written file
+     @param pFromTime first time of the window
+     @param pToTime time just after the window
+     @throws java.io.IOException if anything goes wrong while processing the
+     file or writing the new one
+    */
+    public void writeVCD(String pFileName, boolean pGzip, long pFromTime, long pToTime)throws IOException
+    {
+        createSymbolTable();
+        
+        VCDWriter writer = new VCDWriter(pFileName, pGzip, signalTable, pFromTime);
+        TimeCallback callback = timeUpdateCallback;
+        ChangeListener listener = changeListener;
+        timeUpdateCallback = writer;
+        changeListener = writer;
+        try
+        {
+            try
+            {
+                writer.writeHeader(getTimescale(), "Written from " + new File(vcdFile).getName() + " for times " + pFromTime + " up to " + pToTime);
+                readValues(pFromTime, pToTime);
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch(UncheckedIOException uioe)
+        {
+            throw uioe.getCause();
+        }
+        finally
+        {
+            timeUpdateCallback = callback;
+            changeListener = listener;
+        }
+    }
+    
+    /**
+     Writes every value change of this VCD file to a new one; see
+     {@link vcd.VCD#writeVCD(String, boolean, long, long)}.
+     
+     @author Matthew Hicks
+     @param pFileName name of the VCD file to write
+     @param pGzip whether to gzip the written file
+     @throws java.io.IOException if anything goes wrong while processing the
+     file or writing the new one
+    */
+    public void writeVCD(String pFileName, boolean pGzip)throws IOException
+    {
+        writeVCD(pFileName, pGzip, 0, Long.MAX_VALUE);
+    }
+    
+    // Credits every signal's value with time only from the passed time on
+    private void startCounting(long pTime)
+    {
+        for(Signal sig : signalTable)
+            sig.startCounting(pTime);
+    }
+    
+    // Parses chunks of the values section on a pool of workers, then replays
+    // them into the signals in file order.  Only a few chunks per worker are
+    // in flight at once, which bounds the memory used for buffered changes.
+    // A chunk is only replayed if the chunk before it stopped where it
+    // starts; a boundary that fell inside a keyword block, such as a
+    // $comment with lines that look like timespecs, fails that check, and
+    // the rest of the file is split again from where the last good chunk
+    // stopped.
+    private void readValuesInParallel(TimeCallback pTCB)throws IOException
+    {
+        indexSections();
+        
+        FileChannel channel = openChannel();
+        long fileSize = channel.size();
+        long[] bounds = ValueChunk.split(channel, headerEndOffset, fileSize, CHUNK_SIZE);
+        channel.close();
+        
+        ForkJoinPool pool = new ForkJoinPool(parsingThreads);
+        ArrayDeque<ValueChunk> inFlight = new ArrayDeque<ValueChunk>();
+        ChangeTracker tracker = createChangeTracker();
+        
+        try
+        {
+            long currentTime = 0;
+            long expectedStart = headerEndOffset;
+            int nextChunk = 0;
+            while(nextChunk < bounds.length - 1 || !inFlight.isEmpty())
+            {
+                while(nextChunk < bounds.length - 1 && inFlight.size() < 2 * parsingThreads)
+                {
+                    ValueChunk chunk = new ValueChunk(vcdFile, bounds[nextChunk], bounds[nextChunk + 1], symbolIndex);
+                    pool.execute(chunk);
+                    inFlight.add(chunk);
+                    ++nextChunk;
+                }
+                
+                ValueChunk chunk = inFlight.poll();
+                if(chunk.getStart() != expectedStart)
+                {
+                    // Whatever these chunks parsed, or failed to, is discarded
+                    chunk.quietlyJoin();
+                    for(ValueChunk stale : inFlight)
+                        stale.quietlyJoin();
+                    inFlight.clear();
+                    
+                    if(expectedStart < 0)
+                        break;
+                    
+                    channel = openChannel();
+                    try
+                    {
+                        bounds = ValueChunk.split(channel, expectedStart, fileSize, CHUNK_SIZE);
+                    }
+                    finally
+                    {
+                        channel.close();
+                    }
+                    nextChunk = 0;
+                    continue;
+                }
+                
+                chunk.join();
+                currentTime = chunk.replay(currentTime, pTCB, tracker);
+                expectedStart = chunk.getStop();
             }
+            
+            if(tracker != null)
+                tracker.finish();
+            
+            updateCounters(currentTime);
+        }
+        catch(UncheckedIOException uioe)
+        {
+            throw uioe.getCause();
+        }
+        finally
+        {
+            pool.shutdownNow();
         }
     }
     
@@ -413,6 +1220,41 @@ public class VCD
         }
     }
     
+    /**
+     Resets the performance counters of all signals as of the passed time, so
+     that the time in each state only counts from then on.  Useful as part
+     of a callback function, which is passed the current time.
+     
+     @author Matthew Hicks
+     @param pTime the current time
+    */
+    public void resetPerformanceCounters(long pTime)
+    {
+        for(Signal sig : signals.values())
+        {
+            sig.resetCounters(pTime);
+        }
+    }
+    
+    /**
+     Turns the value cache on or off.  With the cache on, {@link vcd.VCD#readValuesFromVCD}
+     keeps a binary copy of everything it reads (the symbol table, each
+     signal's history and counters, and the time of every timespec) in a
+     file next to the VCD file, named by adding ".cache" to its name, and
+     later reads load that file instead of parsing the VCD file.  The
+     cache is rebuilt whenever the VCD file's size, modification time, or
+     contents at either end change.  It is only used by objects created to
+     keep complete histories, and only when no signal filter, time update
+     callback, or change listener is set.
+     
+     @author Matthew Hicks
+     @param pEnabled whether to use the value cache
+    */
+    public void setCacheEnabled(boolean pEnabled)
+    {
+        cacheEnabled = pEnabled;
+    }
+    
     /**
      Set the function to call every timespec update when running {@link vcd.VCD#readValuesFromVCD}.
      
@@ -424,9 +1266,134 @@ public class VCD
         timeUpdateCallback = pTCB;
     }
     
+    /**
+     Set the listener that is told about every value change, and the end of
+     every timestep, when running {@link vcd.VCD#readValuesFromVCD} or
+     {@link vcd.VCD#readValues}.
+     
+     @author Matthew Hicks
+     @param pListener an object that implements the {@link ChangeListener}
+     interface, or null for none
+    */
+    public void setChangeListener(ChangeListener pListener)
+    {
+        changeListener = pListener;
+    }
+    
+    /**
+     Returns the signal with the passed index, as reported to a
+     {@link ChangeListener}.  Indexes follow the order of the declarations
+     in the header and are only assigned once the header has been read.
+     
+     @author Matthew Hicks
+     @param pIndex index of the signal
+     @return the signal
+     @throws java.io.IOException if anything goes wrong while reading the
+     header
+    */
+    public Signal getSignal(int pIndex)throws IOException
+    {
+        createSymbolTable();
+        return signalTable[pIndex];
+    }
+    
+    /**
+     Returns the signal declared with the passed full name, which can be
+     the name of any of the signal's aliases (see {@link Signal#getAliases}).
+     The name is looked up in the name index.
+     
+     @author Matthew Hicks
+     @param pName full name, with or without its bit select, e.g.,
+     "/top/cpu/pc[31:0]"
+     @return the signal, or null if no signal that passed the filter has
+     that name
+     @throws java.io.IOException if anything goes wrong while reading the
+     header
+     @see NameIndex
+    */
+    public Signal getSignal(String pName)throws IOException
+    {
+        String symbol = getNameIndex().getSymbol(pName);
+        Signal sig = symbol == null ? null : signals.get(symbol);
+        if(sig == null)
+            return null;
+        
+        // The index also holds declarations that the filter rejected, which
+        // can share their symbol with one that it kept
+        if(hasName(sig.getName(), pName))
+            return sig;
+        for(String alias : sig.getAliases())
+        {
+            if(hasName(alias, pName))
+                return sig;
+        }
+        
+        return null;
+    }
+    
+    // True if a full name is the passed name, with or without its bit select
+    private static boolean hasName(String pFullName, String pName)
+    {
+        if(pFullName.equals(pName))
+            return true;
+        
+        int slice = pFullName.lastIndexOf('[');
+        return slice > 0 && pFullName.endsWith("]") && slice == pName.length() && pFullName.startsWith(pName);
+    }
+    
+    /**
+     Returns the number of signals in this VCD file that pass the signal
+     filter, if any; signal indexes run from 0 to this number - 1.
+     
+     @author Matthew Hicks
+     @return the number of signals
+     @throws java.io.IOException if anything goes wrong while reading the
+     header
+    */
+    public int getSignalCount()throws IOException
+    {
+        createSymbolTable();
+        return signalTable.length;
+    }
+    
+    /**
+     Set the filter that decides which signals are created when the header
+     of this VCD file is read.  Value changes of the other signals are
+     skipped by every method that reads values.  Setting a filter discards
+     signals already read, so it should be called before reading values.
+     
+     @author Matthew Hicks
+     @param pFilter the filter, or null to keep every signal
+     @see SignalFilter
+    */
+    public void setSignalFilter(SignalFilter pFilter)
+    {
+        signalFilter = pFilter;
+        signals = null;
+        symbolIndex = null;
+        changeIndex = null;
+    }
+    
+    /**
+     Set the number of threads used to parse the values section of raw VCD
+     files in {@link vcd.VCD#readValuesFromVCD}.  Chunks of the file are
+     parsed in parallel and then applied to the signals in time order, so
+     signal values, counters, histories, and callbacks are the same as with
+     one thread.  Gzipped VCD files are always parsed with one thread.
+     
+     @author Matthew Hicks
+     @param pThreads number of parsing threads; 1 (the default) parses
+     serially
+    */
+    public void setParsingThreads(int pThreads)
+    {
+        parsingThreads = Math.max(1, pThreads);
+    }
+    
     /**
      Go through the values section of this VCD file and record all value updates
      for each timespec.  Populates the list of time points in {@link vcd.VCD#timeSeries}.
+     Symbols that the filter leaves out are left out of the time points.
      
      @author Matthew Hicks
      @throws java.io.IOException if anything goes wrong while processing the
@@ -437,134 +1404,157 @@ public class VCD
         if(timeSeries != null)
             return;
         
-        timeSeries = new ArrayList<TimePoint>(1000);
-        
-        seekValues();
+        // Updates are numbered by signal index
+        createSymbolTable();
+        TimeSeries series = new TimeSeries(signalTable);
         
-        String line;
-        while((line = file.readLine()) != null)
+        VCDLexer lexer = openValuesLexer();
+        try
         {
-            String[] parts = line.split(" ");
-            
-            // Check for new time points
-            if(isTimespec(line))
+            int token;
+            while((token = lexer.next()) != VCDLexer.EOF)
             {
-                timeSeries.add(new TimePoint(Long.parseLong(line.substring(1))));
-                currentTimePoint = timeSeries.get(timeSeries.size() - 1);
-            }
-            // One bit signals have no space between value and symbol
-            else if(parts.length == 1)
-            {
-                currentTimePoint.addPair(new SigVal(line.substring(1), line.substring(0,0)));
-            }
-            else if(parts.length == 2)
-            {
-                currentTimePoint.addPair(new SigVal(parts[1], parts[0]));
-            }
-            else
-            {
-                System.err.println("ERROR: Something went wrong with collect times");
-                System.exit(1);
+                // Check for new time points
+                if(token == VCDLexer.TIME)
+                {
+                    series.addPoint(lexer.getTime());
+                }
+                else if(token == VCDLexer.KEYWORD)
+                {
+                    lexer.skipKeyword();
+                }
+                else
+                {
+                    Signal sig = lexer.lookup(symbolIndex);
+                    if(sig != null || signalFilter == null)
+                        series.addUpdate(sig, lexer);
+                }
             }
         }
+        finally
+        {
+            lexer.close();
+        }
+        
+        collectedTimes = series;
+        timeSeries = series;
     }
     
     /**
-     Given a signal name and type of signal, this method scans the header of
-     this VCD file for the matching symbol (used in the values section). This
-     method returns the symbol if found or null if not found. This method
-     is not meant to be used frequently as it scans the file each request.
-
+     Returns the value updates of every timespec, collecting them first if
+     {@link vcd.VCD#collectTimes} has not.  This is the store behind
+     {@link vcd.VCD#timeSeries}, with access to times, signal numbers, and
+     values without making a {@link TimePoint} or {@link SigVal}.
+     
      @author Matthew Hicks
-     @param pSignalName the name of the signal to find the symbol for
-     @param pSignalType the type (wire or reg) of the signal to find the symbol
-     for
-     @return the symbol as a string or null if the signal cannot be found
+     @return the series of time points
      @throws java.io.IOException if anything goes wrong while processing the
      file
     */
-    public String signalNameToSymbol(String pSignalName, SignalType pSignalType)throws IOException
+    public TimeSeries getTimeSeries()throws IOException
     {
-        seekHeader();
-        
-        String line;
-        String result = null;
-        while((line = file.readLine()) != null)
-        {
-            if(isEndOfHeader(line))
-            {
-                break;
-            }
-            
-            // We assume the signal is a register and look
-            // for that version, because the wire instances are
-            // broken down into bits
-            if(line.contains(" " + pSignalName + " ") && line.contains(" " + pSignalType + " "))
-            {
-                return line.split(" ")[3];
-            }
-        }
-        
-        return null;
+        collectTimes();
+        return collectedTimes;
     }
     
-    private void reportTimesSignalIsValue(String pSignalString, long pValue)throws IOException
+    /**
+     Returns the change index of this VCD file, building it on the first
+     call with one pass over the file.  The index records where each
+     signal's value changes are, so questions like "at which times was this
+     signal 5" read only that signal's changes.  Signals left out by the
+     filter are left out of the index.
+     
+     @author Matthew Hicks
+     @return the change index
+     @throws java.io.IOException if anything goes wrong while processing the
+     file
+     @see ChangeIndex
+    */
+    public ChangeIndex getChangeIndex()throws IOException
     {
-        seekValues();
+        if(changeIndex != null)
+            return changeIndex;
         
-        String line;
-        long currentTime = 0;
+        createSymbolTable();
+        ChangeIndex index = new ChangeIndex(this, signalTable, !isRawVCD());
         
-        while((line = file.readLine()) != null)
+        VCDLexer lexer = openBodyLexer();
+        long currentTime = 0;
+        int token;
+        while((token = lexer.next()) != VCDLexer.EOF)
         {
-            // Keep track of which time step we are at
-            if(isTimespec(line))
+            if(token == VCDLexer.TIME)
             {
-                currentTime = Long.parseLong(line.substring(1));
+                currentTime = lexer.getTime();
             }
-            
-            // Look for a signal match, then compare values
-            if(line.endsWith(" " + pSignalString))
+            else if(token == VCDLexer.KEYWORD)
             {
-                String valuePortion = line.substring(0, line.indexOf(' '));
-                long valueAtTime = convertValueFormat(valuePortion);
-                
-                if(valueAtTime == pValue)
-                {
-                    System.out.println("" + currentTime);
-                }
+                lexer.skipKeyword();
             }
-            // If the value is one bit then there is no space between value and symbol
-            else if(((line.charAt(0) == '0' || line.charAt(0) == '1') && line.substring(1, line.length()).equals(pSignalString)))
+            else
             {
-                long valueAtTime = line.charAt(0) - '0';
-                    
-                if(valueAtTime == pValue)
-                {
-                    System.out.println("" + currentTime);
-                }
+                Signal signal = lexer.lookup(symbolIndex);
+                if(signal != null)
+                    index.add(signal, currentTime, lexer);
             }
         }
+        lexer.close();
+        
+        changeIndex = index;
+        return changeIndex;
     }
     
-    // Converts passed bxxxxxx string into an integer and returns it
-    private static long convertValueFormat(String value)
+    /**
+     Returns the name index of this VCD file, which maps every name declared
+     in the header to its symbol and each symbol to all of its names.  The
+     index is built while the header is read for the signals, so it costs no
+     extra pass over the file unless the signals came from the value cache.
+     
+     @author Matthew Hicks
+     @return the name index
+     @throws java.io.IOException if anything goes wrong while processing the
+     file
+     @see NameIndex
+    */
+    public NameIndex getNameIndex()throws IOException
     {
-        long result = 0;
-        int index;
+        createSymbolTable();
         
-        for(index = 1; index < value.length(); ++index)
+        // Signals loaded from the value cache skipped the header
+        if(nameIndex == null)
         {
-            int bit = value.charAt(index) - '0';
-            
-            // Watch those X's
-            if(bit > 1)
-                bit = 0;
-            
-            result = (result * 2) + bit;
+            NameIndex names = new NameIndex();
+            readSymbolTable(pSignal -> false, false, names);
+            nameIndex = names;
         }
         
-        return result;
+        return nameIndex;
+    }
+    
+    /**
+     Given a signal name and type of signal, this method returns the symbol
+     (used in the values section) of the signal, or null if not found.  A
+     full name (e.g., "/top/cpu/pc") is looked up as is; any other name is
+     the reference name of the first declaration of that type, in any
+     scope.  Names are looked up in the name index, so each call takes
+     constant time.
+
+     @author Matthew Hicks
+     @param pSignalName the name of the signal to find the symbol for
+     @param pSignalType the type (wire or reg) of the signal to find the symbol
+     for
+     @return the symbol as a string or null if the signal cannot be found
+     @throws java.io.IOException if anything goes wrong while processing the
+     file
+     @see NameIndex
+    */
+    public String signalNameToSymbol(String pSignalName, SignalType pSignalType)throws IOException
+    {
+        NameIndex names = getNameIndex();
+        if(pSignalName.startsWith("/"))
+            return names.getSymbol(pSignalName);
+        
+        return names.getSymbol(pSignalName, pSignalType);
     }
     
     // Takes a string and returns true if that string can be parsed as the end
@@ -588,13 +1578,6 @@ public class VCD
         return pLine.startsWith("$var ");
     }
     
-    // Takes a string and returns true if that string can be parsed as a
-    // timespec
-    private static boolean isTimespec(String pLine)
-    {
-        return pLine.length() > 0 ? pLine.charAt(0) == '#' : false;
-    }
-    
     // Takes a string and returns true if that string can be parsed as a
     // down scope
     private static boolean isDownScope(String pLine)
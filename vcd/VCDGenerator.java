@@ -0,0 +1,421 @@
+package vcd;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ VCDGenerator writes synthetic VCD files for scale and regression testing.
+ The same settings and seed always give the same file.  Signals are spread
+ over a tree of scopes of a given depth and fanout, their widths are drawn
+ from a weighted set, and each one gets a toggle rate (its chance of
+ changing at any timestep) drawn log-uniformly from a range.  A change to
+ an x or z value happens with a given density; otherwise scalars toggle and
+ vectors take a new random value.
+
+ Changes are scheduled by drawing the gap to each signal's next change and
+ filing the signal in a timing wheel under that timestep, so writing the
+ file costs time in proportion to the number of changes, not to signals
+ times timesteps.  Files whose name ends in ".gz" are gzipped.
+
+ @author Matthew Hicks
+ @see VCD
+*/
+public class VCDGenerator
+{
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final int MAX_SIGNALS = 1 << 24;
+
+    // Slots of the timing wheel of scheduled changes, a power of two
+    private static final int WHEEL_SIZE = 1 << 16;
+
+    private final long seed;
+    private int signalCount = 1000;
+    private int depth = 3;
+    private int fanout = 4;
+    private int[] widths = {1, 8, 32};
+    private double[] widthWeights = {0.7, 0.2, 0.1};
+    private double minToggleRate = 0.001;
+    private double maxToggleRate = 0.5;
+    private double xzDensity = 0.0;
+    private long steps = 10000;
+    private long timeStep = 10;
+    private long maxBytes = Long.MAX_VALUE;
+
+    // Output buffer
+    private OutputStream out;
+    private byte[] buf;
+    private int pos;
+    private long written;
+
+    /**
+     Constructs a generator with default settings.
+     @author Matthew Hicks
+     @param pSeed Seed of the random choices.
+    */
+    public VCDGenerator(long pSeed)
+    {
+        seed = pSeed;
+    }
+
+    /**
+     Sets the number of signals.
+     @author Matthew Hicks
+     @param pSignalCount Number of signals, at most 2^24.
+    */
+    public void setSignalCount(int pSignalCount)
+    {
+        if(pSignalCount < 1 || pSignalCount > MAX_SIGNALS)
+            throw new IllegalArgumentException("ERROR: signal count out of range: " + pSignalCount);
+        signalCount = pSignalCount;
+    }
+
+    /**
+     Sets the shape of the scope tree.  Signals are spread evenly over the
+     scopes at the bottom of the tree.
+     @author Matthew Hicks
+     @param pDepth Number of levels of scopes, 1 for a single scope.
+     @param pFanout Number of scopes inside each scope above the bottom.
+    */
+    public void setHierarchy(int pDepth, int pFanout)
+    {
+        depth = Math.max(1, pDepth);
+        fanout = Math.max(1, pFanout);
+    }
+
+    /**
+     Sets the widths of the signals and how often each one is drawn.
+     @author Matthew Hicks
+     @param pWidths Widths, in bits.
+     @param pWeights Relative weight of each width.
+    */
+    public void setWidths(int[] pWidths, double[] pWeights)
+    {
+        if(pWidths.length == 0 || pWidths.length != pWeights.length)
+            throw new IllegalArgumentException("ERROR: need one weight for each width");
+        widths = pWidths.clone();
+        widthWeights = pWeights.clone();
+    }
+
+    /**
+     Sets the range of toggle rates.  Each signal's rate, its chance of
+     changing at a timestep, is drawn log-uniformly from the range.
+     @author Matthew Hicks
+     @param pMin Smallest rate, greater than 0.
+     @param pMax Largest rate, at most 1.
+    */
+    public void setToggleRates(double pMin, double pMax)
+    {
+        if(pMin <= 0 || pMax > 1 || pMin > pMax)
+            throw new IllegalArgumentException("ERROR: toggle rates out of range: " + pMin + " to " + pMax);
+        minToggleRate = pMin;
+        maxToggleRate = pMax;
+    }
+
+    /**
+     Sets the fraction of changes that are to x or z.
+     @author Matthew Hicks
+     @param pDensity Fraction of changes, from 0 to 1.
+    */
+    public void setXZDensity(double pDensity)
+    {
+        xzDensity = pDensity;
+    }
+
+    /**
+     Sets the number of timesteps after time 0.
+     @author Matthew Hicks
+     @param pSteps Number of timesteps.
+    */
+    public void setSteps(long pSteps)
+    {
+        if(pSteps < 0 || pSteps == Long.MAX_VALUE)
+            throw new IllegalArgumentException("ERROR: step count out of range: " + pSteps);
+        steps = pSteps;
+    }
+
+    /**
+     Sets the time between timesteps.
+     @author Matthew Hicks
+     @param pTimeStep Time units per timestep.
+    */
+    public void setTimeStep(long pTimeStep)
+    {
+        timeStep = pTimeStep;
+    }
+
+    /**
+     Sets a size at which to stop writing timesteps, before any gzip, so a
+     file of a given size can be made without working out its number of
+     timesteps.
+     @author Matthew Hicks
+     @param pMaxBytes Size in bytes.
+    */
+    public void setMaxBytes(long pMaxBytes)
+    {
+        maxBytes = pMaxBytes;
+    }
+
+    /**
+     Writes a VCD file.
+     @author Matthew Hicks
+     @param pFileName Name of the file; gzipped if it ends in ".gz".
+     @return Number of bytes of VCD written, before any gzip.
+     @throws java.io.IOException if the file cannot be written
+    */
+    public long write(String pFileName)throws IOException
+    {
+        Random random = new Random(seed);
+
+        // Draw the width and toggle rate of every signal
+        int[] width = new int[signalCount];
+        double[] logStay = new double[signalCount];
+        double totalWeight = 0;
+        for(double weight : widthWeights)
+            totalWeight += weight;
+        for(int sig = 0; sig < signalCount; ++sig)
+        {
+            double pick = random.nextDouble() * totalWeight;
+            int choice = 0;
+            while(choice < widths.length - 1 && (pick -= widthWeights[choice]) >= 0)
+                ++choice;
+            width[sig] = widths[choice];
+            double rate = minToggleRate * Math.pow(maxToggleRate / minToggleRate, random.nextDouble());
+            logStay[sig] = Math.log(1 - rate);
+        }
+
+        out = new FileOutputStream(pFileName);
+        if(pFileName.endsWith(".gz"))
+            out = new GZIPOutputStream(out, 1 << 16);
+        buf = new byte[BUFFER_SIZE];
+        pos = 0;
+        written = 0;
+
+        try
+        {
+            writeHeader(width);
+
+            // Scalars toggle, so they need their current value
+            byte[] scalar = new byte[signalCount];
+            put("#0\n$dumpvars\n");
+            for(int sig = 0; sig < signalCount; ++sig)
+            {
+                scalar[sig] = (byte)(random.nextBoolean() ? '1' : '0');
+                putChange(sig, width[sig], scalar, random, false);
+            }
+            put("$end\n");
+
+            // Each wheel slot heads a list, linked through nextInSlot, of the
+            // signals due at a timestep that is that slot modulo the wheel size
+            long[] due = new long[signalCount];
+            int[] nextInSlot = new int[signalCount];
+            int[] slotHead = new int[WHEEL_SIZE];
+            Arrays.fill(slotHead, -1);
+            for(int sig = 0; sig < signalCount; ++sig)
+            {
+                due[sig] = gap(logStay[sig], random);
+                if(due[sig] <= steps)
+                    schedule(sig, due, nextInSlot, slotHead);
+            }
+
+            for(long step = 1; step <= steps && written + pos < maxBytes; ++step)
+            {
+                int slot = (int)(step & (WHEEL_SIZE - 1));
+                int sig = slotHead[slot];
+                if(sig < 0)
+                    continue;
+
+                // Signals due a lap or more later stay in the slot
+                slotHead[slot] = -1;
+                boolean stamped = false;
+                while(sig >= 0)
+                {
+                    int next = nextInSlot[sig];
+                    if(due[sig] == step && written + pos < maxBytes)
+                    {
+                        if(!stamped)
+                        {
+                            put("#");
+                            putNumber(step * timeStep);
+                            put("\n");
+                            stamped = true;
+                        }
+                        putChange(sig, width[sig], scalar, random, random.nextDouble() < xzDensity);
+                        due[sig] = step + gap(logStay[sig], random);
+                    }
+                    if(due[sig] <= steps)
+                        schedule(sig, due, nextInSlot, slotHead);
+                    sig = next;
+                }
+            }
+
+            flush();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return written;
+    }
+
+    // Writes the declarations, spreading the signals over the bottom scopes
+    private void writeHeader(int[] pWidth)throws IOException
+    {
+        put("$date\n\tsynthetic\n$end\n$version\n\tProcessVCD VCDGenerator seed " + seed + "\n$end\n$timescale\n\t1ps\n$end\n");
+
+        long leaves = 1;
+        for(int level = 1; level < depth; ++level)
+            leaves = Math.min(leaves * fanout, signalCount);
+
+        int[] path = new int[depth];
+        for(long leaf = 0; leaf < leaves; ++leaf)
+        {
+            // Open the scopes of this leaf that the previous leaf did not share
+            long rest = leaf;
+            int[] next = new int[depth];
+            for(int level = depth - 1; level >= 1; --level)
+            {
+                next[level] = (int)(rest % fanout);
+                rest /= fanout;
+            }
+
+            int common = 1;
+            if(leaf > 0)
+            {
+                while(common < depth && next[common] == path[common])
+                    ++common;
+                for(int level = depth - 1; level >= common; --level)
+                    put("$upscope $end\n");
+            }
+            else
+            {
+                put("$scope module top $end\n");
+            }
+            for(int level = common; level < depth; ++level)
+                put("$scope module u" + next[level] + " $end\n");
+            path = next;
+
+            int first = (int)(leaf * signalCount / leaves);
+            int last = (int)((leaf + 1) * signalCount / leaves);
+            for(int sig = first; sig < last; ++sig)
+            {
+                put("$var " + (pWidth[sig] == 1 ? "wire" : "reg") + " " + pWidth[sig] + " ");
+                put(VCDWriter.idOf(sig));
+                put(" s" + sig + (pWidth[sig] == 1 ? "" : " [" + (pWidth[sig] - 1) + ":0]") + " $end\n");
+            }
+        }
+
+        for(int level = 0; level < depth; ++level)
+            put("$upscope $end\n");
+        put("$enddefinitions $end\n");
+    }
+
+    // Writes one change of a signal
+    private void putChange(int pSignal, int pWidth, byte[] pScalar, Random pRandom, boolean pXZ)throws IOException
+    {
+        // Identifier codes of up to 2^24 signals take at most 4 bytes
+        ensure(pWidth + 7);
+
+        byte xz = pXZ && pRandom.nextBoolean() ? (byte)'x' : (byte)'z';
+        if(pWidth == 1)
+        {
+            if(pXZ)
+                pScalar[pSignal] = xz;
+            else
+                pScalar[pSignal] = (byte)(pScalar[pSignal] == '1' ? '0' : '1');
+            buf[pos++] = pScalar[pSignal];
+        }
+        else
+        {
+            buf[pos++] = 'b';
+            if(pXZ)
+            {
+                buf[pos++] = xz;
+            }
+            else
+            {
+                for(int bit = 0; bit < pWidth; bit += 32)
+                {
+                    int bits = pRandom.nextInt();
+                    for(int offset = 0; offset < 32 && bit + offset < pWidth; ++offset)
+                        buf[pos++] = (byte)('0' + ((bits >>> offset) & 1));
+                }
+            }
+            buf[pos++] = ' ';
+        }
+
+        pos = VCDWriter.putId(pSignal, buf, pos);
+        buf[pos++] = '\n';
+    }
+
+    // Timesteps until a signal changes again, drawn from the geometric
+    // distribution given the log of its chance of not changing in a timestep
+    // (negative infinity for a signal that changes every timestep)
+    private static long gap(double pLogStay, Random pRandom)
+    {
+        return 1 + (long)Math.min(Long.MAX_VALUE >>> 1, Math.log(1 - pRandom.nextDouble()) / pLogStay);
+    }
+
+    // Files a signal in the wheel slot of its next change
+    private static void schedule(int pSignal, long[] pDue, int[] pNextInSlot, int[] pSlotHead)
+    {
+        int slot = (int)(pDue[pSignal] & (WHEEL_SIZE - 1));
+        pNextInSlot[pSignal] = pSlotHead[slot];
+        pSlotHead[slot] = pSignal;
+    }
+
+    private void put(String pText)throws IOException
+    {
+        put(pText.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void put(byte[] pBytes)throws IOException
+    {
+        ensure(pBytes.length);
+        System.arraycopy(pBytes, 0, buf, pos, pBytes.length);
+        pos += pBytes.length;
+    }
+
+    private void putNumber(long pNumber)throws IOException
+    {
+        ensure(20);
+        int start = pos;
+        do
+        {
+            buf[pos++] = (byte)('0' + pNumber % 10);
+            pNumber /= 10;
+        } while(pNumber != 0);
+
+        // The digits went in backwards
+        for(int low = start, high = pos - 1; low < high; ++low, --high)
+        {
+            byte digit = buf[low];
+            buf[low] = buf[high];
+            buf[high] = digit;
+        }
+    }
+
+    // Makes room in the buffer for pBytes more bytes
+    private void ensure(int pBytes)throws IOException
+    {
+        if(buf.length - pos >= pBytes)
+            return;
+
+        flush();
+        if(buf.length < pBytes)
+            buf = new byte[pBytes];
+    }
+
+    private void flush()throws IOException
+    {
+        out.write(buf, 0, pos);
+        written += pos;
+        pos = 0;
+    }
+}
@@ -0,0 +1,668 @@
+package vcd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ VCDLexer scans the values section of a VCD file directly out of a byte
+ buffer.  Each call to {@link #next} recognizes one timespec ({@code #time}),
+ scalar change ({@code 0!}), vector change ({@code b1010 !}), real change
+ ({@code r1.5 !}), or keyword ({@code $end}) and records where its parts
+ are in the buffer.  No String or array is allocated per token; callers
+ decode only the parts that they need.
+
+ Bytes come either from a stream (e.g., a gzipped VCD file) copied into a
+ reusable array or, for raw VCD files, from windows of the file that are
+ memory mapped and scanned in place.
+
+ @author Matthew Hicks
+ @see VCD
+*/
+class VCDLexer
+{
+    // Token types returned by next()
+    static final int EOF = 0;
+    static final int TIME = 1;
+    static final int SCALAR = 2;
+    static final int VECTOR = 3;
+    static final int REAL = 4;
+    static final int KEYWORD = 5;
+
+    // Scalar values are shared, so there is never a reason to make new ones
+    private static final String[] SCALAR_STRINGS = new String[128];
+    static
+    {
+        for(char c : "01xXzZuUwWlLhH-".toCharArray())
+            SCALAR_STRINGS[c] = String.valueOf(c).intern();
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAP_WINDOW = 1 << 28;
+
+    // Exactly one of in and channel is set
+    private final InputStream in;
+    private final FileChannel channel;
+    private byte[] array;
+    private ByteBuffer buf;
+
+    // File offset of the first byte in buf
+    private long base;
+
+    // Scan position, end of valid bytes, and start of the token being scanned
+    private int pos = 0;
+    private int limit = 0;
+    private int mark = 0;
+
+    // Parts of the last token
+    private int type;
+    private long time;
+    private byte scalar;
+    private int valueStart;
+    private int valueLength;
+    private int symbolStart;
+    private int symbolLength;
+
+    // Value of the last change token after decode()
+    private long aval;
+    private long bval;
+    private long[] wideAval = new long[2];
+    private long[] wideBval = new long[2];
+
+    /**
+     Constructs a lexer that pulls bytes from the passed stream.
+     @author Matthew Hicks
+     @param pIn Stream positioned anywhere in a VCD file.
+    */
+    VCDLexer(InputStream pIn)
+    {
+        in = pIn;
+        channel = null;
+        array = new byte[BUFFER_SIZE];
+        buf = ByteBuffer.wrap(array);
+        base = 0;
+    }
+
+    /**
+     Constructs a lexer that scans memory-mapped windows of a raw VCD file.
+     @author Matthew Hicks
+     @param pChannel Channel of the VCD file.
+     @param pOffset Byte offset in the file to start scanning from.
+    */
+    VCDLexer(FileChannel pChannel, long pOffset)
+    {
+        in = null;
+        channel = pChannel;
+        buf = ByteBuffer.allocate(0);
+        base = pOffset;
+    }
+
+    /**
+     Scans the next token.
+     @author Matthew Hicks
+     @return One of the token type constants.
+     @throws java.io.IOException if the stream fails or holds something that
+     is not a timespec, value change, or keyword
+    */
+    int next()throws IOException
+    {
+        if(!skipWhitespace())
+            return EOF;
+
+        mark = pos;
+        byte c = buf.get(pos++);
+        switch(c)
+        {
+            case '#':
+                time = 0;
+                for(int b; (b = peek()) >= '0' && b <= '9'; ++pos)
+                    time = (time * 10) + (b - '0');
+                endWord();
+                return (type = TIME);
+            case 'b': case 'B':
+                scanVectorOrReal();
+                return (type = VECTOR);
+            case 'r': case 'R':
+                scanVectorOrReal();
+                return (type = REAL);
+            case '$':
+                valueStart = mark;
+                endWord();
+                valueLength = pos - valueStart;
+                return (type = KEYWORD);
+            default:
+                if(c < 0 || SCALAR_STRINGS[c] == null)
+                    throw new IOException("ERROR: Unrecognized token in the VCD values: " + (char)c);
+                scalar = c;
+                symbolStart = pos;
+                endWord();
+                symbolLength = pos - symbolStart;
+                return (type = SCALAR);
+        }
+    }
+
+    /**
+     Skips whole words until one matches the passed keyword.
+     @author Matthew Hicks
+     @param pKeyword The keyword, e.g., "$enddefinitions".
+     @return true if the keyword was found, false if the stream ended first.
+     @throws java.io.IOException if the stream fails
+    */
+    boolean skipPast(String pKeyword)throws IOException
+    {
+        while(skipWhitespace())
+        {
+            mark = pos;
+            endWord();
+            if(wordEquals(mark, pos - mark, pKeyword))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     Skips the rest of the current line.
+     @author Matthew Hicks
+     @return The byte offset of the start of the next line.
+     @throws java.io.IOException if the stream fails
+    */
+    long skipLine()throws IOException
+    {
+        for(int b; (b = peek()) >= 0 && b != '\n'; ++pos)
+            ;
+
+        if(pos < limit)
+            ++pos;
+
+        return getOffset();
+    }
+
+    /**
+     Moves the scan position of a lexer over a raw VCD file to the passed
+     offset, which should be the start of a token.
+     @author Matthew Hicks
+     @param pOffset Byte offset in the file, as returned by
+     {@link #getTokenOffset}.
+    */
+    void seek(long pOffset)
+    {
+        if(pOffset >= base && pOffset < base + limit)
+        {
+            pos = mark = (int)(pOffset - base);
+            return;
+        }
+
+        // The next token maps a new window starting at the offset
+        buf = ByteBuffer.allocate(0);
+        base = pOffset;
+        pos = mark = limit = 0;
+    }
+
+    /**
+     Returns the byte offset, from the start of the file (or uncompressed
+     stream), of the first byte that has not been scanned yet.
+     @author Matthew Hicks
+     @return The current byte offset.
+    */
+    long getOffset()
+    {
+        return base + pos;
+    }
+
+    /**
+     Returns the byte offset of the start of the last token.
+     @author Matthew Hicks
+     @return The offset of the token's first byte.
+    */
+    long getTokenOffset()
+    {
+        return base + mark;
+    }
+
+    /**
+     Skips the body of the last keyword token if it holds free text rather
+     than value changes.  Keywords like $dumpall bracket value changes that
+     are processed as usual.
+     @author Matthew Hicks
+     @throws java.io.IOException if the stream fails
+    */
+    void skipKeyword()throws IOException
+    {
+        if(isKeyword("$comment"))
+            skipPast("$end");
+    }
+
+    /**
+     Returns true if the last keyword token matches the passed keyword.
+     @author Matthew Hicks
+     @param pKeyword The keyword, e.g., "$end".
+     @return true if the keyword matches.
+    */
+    boolean isKeyword(String pKeyword)
+    {
+        return wordEquals(valueStart, valueLength, pKeyword);
+    }
+
+    /**
+     Returns true if the last keyword token starts a block of values that
+     are not changes: $dumpvars, $dumpall, $dumpon, or $dumpoff.  The block
+     ends at the next $end.
+     @author Matthew Hicks
+     @return true for the keywords that start a dump block.
+    */
+    boolean isDumpKeyword()
+    {
+        return isKeyword("$dumpvars") || isKeyword("$dumpall") || isKeyword("$dumpon") || isKeyword("$dumpoff");
+    }
+
+    /**
+     Returns the time of the last timespec token.
+     @author Matthew Hicks
+     @return A time in the simulator's timescale.
+    */
+    long getTime()
+    {
+        return time;
+    }
+
+    /**
+     Returns the value character of the last scalar token.
+     @author Matthew Hicks
+     @return One of 0, 1, x, z (or another 4-state character).
+    */
+    byte getScalar()
+    {
+        return scalar;
+    }
+
+    /**
+     Decodes the value of the last value change token into aval and bval
+     bits without allocating.  Values of signals wider than 64 bits go into
+     the wide words; all others go into the aval and bval longs.
+     @author Matthew Hicks
+     @param pWidth Number of bits in the signal being changed.
+     @return true if the value went into the wide words.
+     @see LogicValue
+    */
+    boolean decode(int pWidth)
+    {
+        boolean wide = pWidth > 64;
+        if(wide && wideAval.length < ValueCodec.wordsFor(pWidth))
+        {
+            wideAval = new long[ValueCodec.wordsFor(pWidth)];
+            wideBval = new long[wideAval.length];
+        }
+
+        if(type == SCALAR)
+        {
+            int state = ValueCodec.stateOf(scalar);
+            aval = state & 1;
+            bval = state >>> 1;
+        }
+        else if(type == REAL)
+        {
+            aval = Double.doubleToRawLongBits(ValueCodec.parseReal(decode(valueStart, valueLength)));
+            bval = 0;
+        }
+        else
+        {
+            // Digits follow the b prefix; read them from the LSB up
+            int digits = valueLength - 1;
+            int last = valueStart + valueLength - 1;
+            int extend = digits == 0 ? 3 : ValueCodec.extensionOf(ValueCodec.stateOf(buf.get(valueStart + 1)));
+
+            for(int word = 0; word < ValueCodec.wordsFor(pWidth); ++word)
+            {
+                int bits = Math.min(64, pWidth - (word << 6));
+                long wordAval = 0;
+                long wordBval = 0;
+                for(int bit = 0; bit < bits; ++bit)
+                {
+                    int index = (word << 6) + bit;
+                    int state = index < digits ? ValueCodec.stateOf(buf.get(last - index)) : extend;
+                    wordAval |= (long)(state & 1) << bit;
+                    wordBval |= (long)(state >>> 1) << bit;
+                }
+
+                if(!wide)
+                {
+                    aval = wordAval;
+                    bval = wordBval;
+                    return false;
+                }
+
+                wideAval[word] = wordAval;
+                wideBval[word] = wordBval;
+            }
+
+            return true;
+        }
+
+        if(wide)
+        {
+            Arrays.fill(wideAval, 0);
+            Arrays.fill(wideBval, 0);
+            wideAval[0] = aval;
+            wideBval[0] = bval;
+        }
+
+        return wide;
+    }
+
+    /**
+     Decodes the value of the last value change token and sets it on the
+     passed signal.
+     @author Matthew Hicks
+     @param pSignal The signal named by the token's symbol; null (a filtered
+     out or undeclared symbol) skips the change.
+     @param pTime Time of the value change.
+    */
+    void applyTo(Signal pSignal, long pTime)
+    {
+        if(pSignal == null)
+            return;
+
+        if(decode(pSignal.getWidth()))
+            pSignal.setValue(wideAval, wideBval, pTime);
+        else
+            pSignal.setValue(aval, bval, pTime);
+    }
+
+    /**
+     Decodes the value of the last value change token and sets it on the
+     passed signal without counting it as an update.
+     @author Matthew Hicks
+     @param pSignal The signal named by the token's symbol; null skips the
+     change.
+     @param pTime Time of the value change.
+     @see Signal#restoreValue(long, long, long)
+    */
+    void restoreTo(Signal pSignal, long pTime)
+    {
+        if(pSignal == null)
+            return;
+
+        if(decode(pSignal.getWidth()))
+            pSignal.restoreValue(wideAval, wideBval, pTime);
+        else
+            pSignal.restoreValue(aval, bval, pTime);
+    }
+
+    /**
+     Decodes the value of the last value change token, which is inside a
+     dump block, and sets it on the passed signal.  The old value is
+     credited with the time it was held, but the new one is not counted as
+     an update.
+     @author Matthew Hicks
+     @param pSignal The signal named by the token's symbol; null skips the
+     value.
+     @param pTime Time of the dump.
+     @see VCDLexer#isDumpKeyword
+    */
+    void dumpTo(Signal pSignal, long pTime)
+    {
+        if(pSignal == null)
+            return;
+
+        pSignal.updateCounters(pTime);
+        restoreTo(pSignal, pTime);
+    }
+
+    /**
+     Returns the aval bits of the last decoded value.
+     @author Matthew Hicks
+     @return The aval bits.
+    */
+    long getAval()
+    {
+        return aval;
+    }
+
+    /**
+     Returns the bval bits of the last decoded value.
+     @author Matthew Hicks
+     @return The bval bits.
+    */
+    long getBval()
+    {
+        return bval;
+    }
+
+    /**
+     Returns the aval words of the last decoded wide value.  The array is
+     reused by the next decode and may be longer than the value.
+     @author Matthew Hicks
+     @return The aval words.
+    */
+    long[] getWideAval()
+    {
+        return wideAval;
+    }
+
+    /**
+     Returns the bval words of the last decoded wide value.  The array is
+     reused by the next decode and may be longer than the value.
+     @author Matthew Hicks
+     @return The bval words.
+    */
+    long[] getWideBval()
+    {
+        return wideBval;
+    }
+
+    /**
+     Returns the number of bytes in the value of the last value change
+     token, as the VCD file wrote it.
+     @author Matthew Hicks
+     @return Length of the value.
+    */
+    int getValueLength()
+    {
+        return type == SCALAR ? 1 : valueLength;
+    }
+
+    /**
+     Copies the value of the last value change token, as the VCD file wrote
+     it, into an array.
+     @author Matthew Hicks
+     @param pDest Array to copy into.
+     @param pPos Position in the array to copy to.
+     @return Number of bytes copied.
+    */
+    int copyValue(byte[] pDest, int pPos)
+    {
+        if(type == SCALAR)
+        {
+            pDest[pPos] = scalar;
+            return 1;
+        }
+
+        if(array != null)
+            System.arraycopy(array, valueStart, pDest, pPos, valueLength);
+        else
+        {
+            for(int index = 0; index < valueLength; ++index)
+                pDest[pPos + index] = buf.get(valueStart + index);
+        }
+
+        return valueLength;
+    }
+
+    /**
+     Returns the shared String of a scalar value.
+     @author Matthew Hicks
+     @param pState The value character, e.g., '1' or 'x'.
+     @return The String, or null if the character is not a scalar value.
+    */
+    static String scalarString(byte pState)
+    {
+        return pState < 0 ? null : SCALAR_STRINGS[pState];
+    }
+
+    /**
+     Returns the symbol of the last value change token as a String.
+     @author Matthew Hicks
+     @return The symbol as it appears in the VCD file.
+    */
+    String getSymbolString()
+    {
+        return decode(symbolStart, symbolLength);
+    }
+
+    /**
+     Returns the signal named by the symbol of the last value change token,
+     straight from the buffer.
+     @author Matthew Hicks
+     @param pIndex Index of the symbol table.
+     @return The signal, or null if the symbol is not in the index.
+    */
+    Signal lookup(SymbolIndex pIndex)
+    {
+        return pIndex.get(buf, symbolStart, symbolLength);
+    }
+
+    /**
+     Closes the underlying stream or channel.
+     @author Matthew Hicks
+     @throws java.io.IOException if the stream fails to close
+    */
+    void close()throws IOException
+    {
+        if(in != null)
+            in.close();
+        else
+            channel.close();
+    }
+
+    private String decode(int pStart, int pLength)
+    {
+        if(array != null)
+            return new String(array, pStart, pLength, StandardCharsets.ISO_8859_1);
+
+        byte[] bytes = new byte[pLength];
+        for(int index = 0; index < pLength; ++index)
+            bytes[index] = buf.get(pStart + index);
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    // Vectors and reals have a value word, whitespace, then a symbol word
+    // The value keeps its b or r prefix, as in the VCD file
+    private void scanVectorOrReal()throws IOException
+    {
+        valueStart = mark;
+        endWord();
+        valueLength = pos - valueStart;
+
+        if(!skipWhitespace())
+            throw new IOException("ERROR: Value change without a symbol at the end of the VCD file");
+
+        symbolStart = pos;
+        endWord();
+        symbolLength = pos - symbolStart;
+    }
+
+    // Moves pos to the first byte after the current word
+    private void endWord()throws IOException
+    {
+        for(int b; (b = peek()) > ' '; ++pos)
+            ;
+    }
+
+    // Moves pos to the start of the next word, false if the stream ends first
+    private boolean skipWhitespace()throws IOException
+    {
+        int b;
+        while((b = peek()) >= 0 && b <= ' ')
+            ++pos;
+
+        return b >= 0;
+    }
+
+    // Returns the byte at pos, -1 at the end of the stream
+    private int peek()throws IOException
+    {
+        if(pos == limit && !fill())
+            return -1;
+
+        return buf.get(pos) & 0xFF;
+    }
+
+    private boolean wordEquals(int pStart, int pLength, String pWord)
+    {
+        if(pLength != pWord.length())
+            return false;
+
+        for(int index = 0; index < pLength; ++index)
+        {
+            if(buf.get(pStart + index) != pWord.charAt(index))
+                return false;
+        }
+
+        return true;
+    }
+
+    // Reads more bytes, keeping everything from the start of the current token
+    private boolean fill()throws IOException
+    {
+        if(channel != null)
+            return remap();
+
+        int keep = limit - mark;
+
+        // Tokens longer than the buffer (really wide vectors) need more room
+        if(mark == 0 && limit == array.length)
+        {
+            byte[] bigger = new byte[array.length << 1];
+            System.arraycopy(array, 0, bigger, 0, keep);
+            array = bigger;
+            buf = ByteBuffer.wrap(array);
+        }
+        else
+        {
+            System.arraycopy(array, mark, array, 0, keep);
+        }
+
+        shift();
+        limit = keep;
+
+        int read = in.read(array, limit, array.length - limit);
+        if(read <= 0)
+            return false;
+
+        limit += read;
+        return true;
+    }
+
+    // Maps the next window of the file, starting at the current token
+    private boolean remap()throws IOException
+    {
+        long start = base + mark;
+        long remaining = channel.size() - start;
+        int keep = limit - mark;
+        if(remaining <= keep)
+            return false;
+
+        // Tokens longer than a window need a bigger window
+        long size = Math.min(remaining, Math.max(MAP_WINDOW, (long)keep << 1));
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+
+        shift();
+        limit = (int)size;
+        return true;
+    }
+
+    // Moves the current token to the start of the buffer
+    private void shift()
+    {
+        base += mark;
+        pos -= mark;
+        valueStart -= mark;
+        symbolStart -= mark;
+        mark = 0;
+    }
+}
@@ -0,0 +1,421 @@
+package vcd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ VCDWriter writes a compact VCD file from the signals of another one as
+ {@link vcd.VCD#writeVCD} reads it.  The writer is both the time callback
+ and the change listener of the read: the state of every signal at the
+ start of the window goes into a $dumpvars block, and after that only
+ signals whose value at the end of a timestep differs from the value last
+ written are written, so changes that do not change anything, and
+ timesteps with no changes left, are dropped.  Signals get new identifier
+ codes in index order, the shortest ones first, and the aliases of a signal
+ are declared with its code.
+
+ Output is built in a large byte buffer and written to the file channel,
+ or through a gzip stream, whenever the buffer fills.
+
+ @author Matthew Hicks
+ @see VCD#writeVCD
+*/
+class VCDWriter implements TimeCallback, ChangeListener
+{
+    private static final int BUFFER_SIZE = 1 << 22;
+
+    // Identifier codes are made of the printable characters from '!' to '~'
+    private static final int ID_FIRST = '!';
+    private static final int ID_RADIX = '~' - '!' + 1;
+
+    private final Signal[] signals;
+    private final byte[][] ids;
+    private final long windowStart;
+
+    private final FileChannel channel;
+    private final OutputStream gzip;
+    private ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // Last value written for each signal, at wordOffsets[index] in the lanes
+    private final int[] wordOffsets;
+    private final long[] writtenAval;
+    private final long[] writtenBval;
+    private final boolean[] written;
+
+    // Scratch space for the value being compared and written
+    private long[] aval;
+    private long[] bval;
+    private byte[] digits;
+
+    private boolean started = false;
+    private long lastTime = -1;
+
+    /**
+     Creates the output file.
+     @author Matthew Hicks
+     @param pFileName Name of the file to write.
+     @param pGzip true to gzip the output.
+     @param pSignals The signals to write, in index order.
+     @param pWindowStart Time of the $dumpvars block.
+     @throws java.io.IOException if the file cannot be created
+    */
+    VCDWriter(String pFileName, boolean pGzip, Signal[] pSignals, long pWindowStart)throws IOException
+    {
+        signals = pSignals;
+        windowStart = pWindowStart;
+
+        ids = new byte[pSignals.length][];
+        wordOffsets = new int[pSignals.length + 1];
+        int widest = 1;
+        for(int index = 0; index < pSignals.length; ++index)
+        {
+            ids[index] = idOf(index);
+            wordOffsets[index + 1] = wordOffsets[index] + ValueCodec.wordsFor(Math.max(1, pSignals[index].getWidth()));
+            widest = Math.max(widest, pSignals[index].getWidth());
+        }
+        writtenAval = new long[wordOffsets[pSignals.length]];
+        writtenBval = new long[wordOffsets[pSignals.length]];
+        written = new boolean[pSignals.length];
+        aval = new long[ValueCodec.wordsFor(widest)];
+        bval = new long[ValueCodec.wordsFor(widest)];
+        digits = new byte[widest];
+
+        channel = FileChannel.open(Paths.get(pFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        gzip = pGzip ? new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16) : null;
+    }
+
+    /**
+     Writes the header: the timescale and the declaration of every signal
+     and each of its aliases, grouped into scopes by path.
+     @author Matthew Hicks
+     @param pTimescale Timescale of the file, e.g., "1 ns".
+     @param pComment Comment to put in the header, or null.
+     @throws java.io.IOException if the file cannot be written
+    */
+    void writeHeader(String pTimescale, String pComment)throws IOException
+    {
+        if(pComment != null)
+            putLine("$comment\n\t" + pComment + "\n$end");
+        putLine("$version\n\tProcessVCD VCDWriter\n$end");
+        putLine("$timescale\n\t" + pTimescale.trim() + "\n$end");
+
+        // Aliases can be in scopes far from their signal, so the scopes are
+        // gathered into a tree before any is written
+        HeaderScope top = new HeaderScope();
+        for(int index = 0; index < signals.length; ++index)
+        {
+            Signal sig = signals[index];
+            declare(top, sig.getName(), index);
+            for(String alias : sig.getAliases())
+                declare(top, alias, index);
+        }
+        writeScope(top);
+
+        putLine("$enddefinitions $end");
+    }
+
+    // A scope of the header, with its declarations and inner scopes in the
+    // order they were first seen
+    private static final class HeaderScope
+    {
+        final HashMap<String, HeaderScope> children = new HashMap<String, HeaderScope>();
+        final ArrayList<Object> items = new ArrayList<Object>();
+    }
+
+    // Adds the declaration of a full name, as a $var line, to its scope
+    private void declare(HeaderScope pTop, String pName, int pIndex)
+    {
+        Signal sig = signals[pIndex];
+        String[] levels = pName.split("/", -1);
+
+        HeaderScope scope = pTop;
+        for(int level = 1; level < levels.length - 1; ++level)
+        {
+            HeaderScope child = scope.children.get(levels[level]);
+            if(child == null)
+            {
+                child = new HeaderScope();
+                scope.children.put(levels[level], child);
+                scope.items.add("$scope module " + levels[level] + " $end");
+                scope.items.add(child);
+            }
+            scope = child;
+        }
+
+        // A trailing bit select goes back into its own field
+        String name = levels[levels.length - 1];
+        int slice = name.lastIndexOf('[');
+        if(slice > 0 && name.endsWith("]"))
+            name = name.substring(0, slice) + " " + name.substring(slice);
+
+        scope.items.add("$var " + sig.getType() + " " + sig.getWidth() + " " + new String(ids[pIndex], StandardCharsets.US_ASCII) + " " + name + " $end");
+    }
+
+    private void writeScope(HeaderScope pScope)
+    {
+        for(Object item : pScope.items)
+        {
+            if(item instanceof HeaderScope)
+            {
+                writeScope((HeaderScope)item);
+                putLine("$upscope $end");
+            }
+            else
+            {
+                putLine((String)item);
+            }
+        }
+    }
+
+    /**
+     Writes the $dumpvars block if the first timespec of the window comes
+     after its start.
+     @author Matthew Hicks
+     @param pTime Time of the timespec.
+    */
+    public void timeUpdate(long pTime)
+    {
+        if(!started && pTime > windowStart)
+            writeDumpVars(windowStart);
+    }
+
+    /**
+     Does nothing; values are compared once their timestep ends.
+     @author Matthew Hicks
+     @param pIndex Unused.
+     @param pAval Unused.
+     @param pBval Unused.
+     @param pTime Unused.
+    */
+    public void valueChanged(int pIndex, long pAval, long pBval, long pTime)
+    {
+    }
+
+    /**
+     Writes the signals whose value at the end of the timestep differs from
+     the one last written.  A timestep at the start of the window goes into
+     the $dumpvars block instead.
+     @author Matthew Hicks
+     @param pTime Time of the timestep.
+     @param pDirty Indexes of the signals set during the timestep.
+     @param pDirtyCount Number of valid entries in pDirty.
+    */
+    public void timestepEnd(long pTime, int[] pDirty, int pDirtyCount)
+    {
+        if(!started)
+        {
+            writeDumpVars(pTime);
+            return;
+        }
+
+        for(int dirty = 0; dirty < pDirtyCount; ++dirty)
+        {
+            int index = pDirty[dirty];
+            if(!signals[index].hasValue() || !valueChanged(index))
+                continue;
+
+            if(pTime != lastTime)
+            {
+                ensure(21);
+                buf.put((byte)'#');
+                putNumber(pTime);
+                buf.put((byte)'\n');
+                lastTime = pTime;
+            }
+            putValue(index);
+        }
+    }
+
+    /**
+     Writes the $dumpvars block if the window had no timesteps, and flushes
+     and closes the file.
+     @author Matthew Hicks
+     @throws java.io.IOException if the file cannot be written
+    */
+    void close()throws IOException
+    {
+        if(!started)
+            writeDumpVars(windowStart);
+
+        try
+        {
+            flush();
+            if(gzip != null)
+                gzip.close();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    // Writes the current value of every signal that has one
+    private void writeDumpVars(long pTime)
+    {
+        started = true;
+        lastTime = pTime;
+
+        ensure(21);
+        buf.put((byte)'#');
+        putNumber(pTime);
+        buf.put((byte)'\n');
+        putLine("$dumpvars");
+        for(int index = 0; index < signals.length; ++index)
+        {
+            if(signals[index].hasValue())
+            {
+                valueChanged(index);
+                putValue(index);
+            }
+        }
+        putLine("$end");
+    }
+
+    // Loads the value of a signal into the scratch lanes and returns true if
+    // it differs from the value last written, which it then replaces
+    private boolean valueChanged(int pIndex)
+    {
+        signals[pIndex].copyValue(aval, bval);
+
+        int offset = wordOffsets[pIndex];
+        int words = wordOffsets[pIndex + 1] - offset;
+        boolean changed = !written[pIndex];
+        for(int word = 0; word < words; ++word)
+        {
+            if(writtenAval[offset + word] != aval[word] || writtenBval[offset + word] != bval[word])
+            {
+                changed = true;
+                writtenAval[offset + word] = aval[word];
+                writtenBval[offset + word] = bval[word];
+            }
+        }
+        written[pIndex] = true;
+
+        return changed;
+    }
+
+    // Writes the value in the scratch lanes as a change of the signal
+    private void putValue(int pIndex)
+    {
+        Signal sig = signals[pIndex];
+        byte[] id = ids[pIndex];
+
+        if(sig.getType() == SignalType.real)
+        {
+            putLine(ValueCodec.format(64, true, aval, bval) + " " + new String(id, StandardCharsets.US_ASCII));
+            return;
+        }
+
+        ensure(sig.getWidth() + id.length + 3);
+        if(sig.getWidth() <= 1)
+        {
+            buf.put(ValueCodec.DIGITS[(int)((aval[0] & 1) | ((bval[0] & 1) << 1))]);
+        }
+        else
+        {
+            buf.put((byte)'b');
+            buf.put(digits, 0, ValueCodec.formatBits(sig.getWidth(), aval, bval, digits));
+            buf.put((byte)' ');
+        }
+        buf.put(id);
+        buf.put((byte)'\n');
+    }
+
+    private void putLine(String pLine)
+    {
+        byte[] bytes = pLine.getBytes(StandardCharsets.US_ASCII);
+        ensure(bytes.length + 1);
+        buf.put(bytes);
+        buf.put((byte)'\n');
+    }
+
+    // Writes a non-negative number without making a String
+    private void putNumber(long pNumber)
+    {
+        int start = buf.position();
+        do
+        {
+            buf.put((byte)('0' + pNumber % 10));
+            pNumber /= 10;
+        } while(pNumber != 0);
+
+        // The digits went in backwards
+        for(int low = start, high = buf.position() - 1; low < high; ++low, --high)
+        {
+            byte digit = buf.get(low);
+            buf.put(low, buf.get(high));
+            buf.put(high, digit);
+        }
+    }
+
+    // Makes room in the buffer for pBytes more bytes
+    private void ensure(int pBytes)
+    {
+        if(buf.remaining() >= pBytes)
+            return;
+
+        try
+        {
+            flush();
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+
+        if(buf.capacity() < pBytes)
+            buf = ByteBuffer.allocate(pBytes);
+    }
+
+    private void flush()throws IOException
+    {
+        buf.flip();
+        if(gzip != null)
+        {
+            gzip.write(buf.array(), buf.arrayOffset(), buf.limit());
+        }
+        else
+        {
+            while(buf.hasRemaining())
+                channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    // Shortest identifier codes first: "!" to "~", then "!!" and so on
+    static byte[] idOf(int pIndex)
+    {
+        byte[] id = new byte[8];
+        return Arrays.copyOf(id, putId(pIndex, id, 0));
+    }
+
+    // Writes the identifier code of a signal at pPos, returning the position
+    // just past it
+    static int putId(int pIndex, byte[] pBuf, int pPos)
+    {
+        int length = 1;
+        for(long span = ID_RADIX; pIndex >= span; span *= ID_RADIX)
+        {
+            pIndex -= span;
+            ++length;
+        }
+
+        for(int position = pPos + length - 1; position >= pPos; --position)
+        {
+            pBuf[position] = (byte)(ID_FIRST + pIndex % ID_RADIX);
+            pIndex /= ID_RADIX;
+        }
+        return pPos + length;
+    }
+}
@@ -0,0 +1,415 @@
+package vcd;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ ValueCache is a binary sidecar file, stored next to a VCD file, that holds
+ everything {@link vcd.VCD#readValuesFromVCD} learns about the file when it
+ keeps complete histories: the symbol table, the final state and counters
+ of every signal, each signal's history as columns (delta-encoded times and
+ bit-packed values), and an index of every timespec in the file.  Later
+ runs load the cache, decoding it straight into the signals, instead of
+ parsing the text of the VCD file.
+
+ The cache is stamped with the size and modification time of the VCD file
+ and a CRC-32 of its first and last blocks, so a cache left over from a
+ different dump is ignored.
+
+ @author Matthew Hicks
+ @see VCD#setCacheEnabled
+*/
+class ValueCache
+{
+    private static final String SUFFIX = ".cache";
+    private static final int MAGIC = 0x56434443;
+    private static final int VERSION = 3;
+
+    // The cache is mapped as one buffer, so it cannot be any larger
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    // Bytes at each end of the VCD file that go into the stamp's CRC
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    private final Signal[] signals;
+    private final long[] times;
+
+    private ValueCache(Signal[] pSignals, long[] pTimes)
+    {
+        signals = pSignals;
+        times = pTimes;
+    }
+
+    /**
+     Returns the signals read from the cache, in index order.
+     @author Matthew Hicks
+     @return The signals.
+    */
+    Signal[] getSignals()
+    {
+        return signals;
+    }
+
+    /**
+     Returns the time of every timespec in the VCD file.
+     @author Matthew Hicks
+     @return The times, in file order.
+    */
+    long[] getTimes()
+    {
+        return times;
+    }
+
+    /**
+     Loads the cache of the passed VCD file.  If the signals have already
+     been read from the header, the cache fills them in instead of creating
+     new ones, but only once all of it has been read without error.
+     @author Matthew Hicks
+     @param pVcdFile Name of the VCD file.
+     @param pSignals Existing signals in index order, or null.
+     @return The cache, or null if there is no cache, it is out of date, or
+     it does not match pSignals.
+    */
+    static ValueCache load(String pVcdFile, Signal[] pSignals)
+    {
+        File cache = new File(pVcdFile + SUFFIX);
+        if(!cache.isFile() || cache.length() > MAX_SIZE)
+            return null;
+
+        try
+        {
+            FileChannel channel = FileChannel.open(Paths.get(pVcdFile + SUFFIX), StandardOpenOption.READ);
+            ByteBuffer in;
+            try
+            {
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally
+            {
+                channel.close();
+            }
+
+            File source = new File(pVcdFile);
+            if(in.getInt() != MAGIC || in.getInt() != VERSION)
+                return null;
+            if(in.getLong() != source.length() || in.getLong() != source.lastModified() || in.getLong() != sampleHash(source))
+                return null;
+
+            long[] times = new long[readCount(in, 1)];
+            long last = 0;
+            for(int index = 0; index < times.length; ++index)
+                times[index] = (last += readVarLong(in));
+
+            int count = readCount(in, 1);
+            if(pSignals != null && pSignals.length != count)
+                return null;
+
+            // The whole cache is read into new signals before any existing
+            // signal is touched, so a broken cache leaves them as they were
+            Signal[] signals = new Signal[count];
+            int[] stateStarts = new int[count];
+            for(int index = 0; index < count; ++index)
+            {
+                String symbol = readString(in);
+                String path = readString(in);
+                String name = readString(in);
+                SignalType type = SignalType.values()[in.get()];
+                int width = in.getInt();
+                if(width < 0 || ((long)ValueCodec.wordsFor(width) << 4) > in.remaining())
+                    return null;
+
+                signals[index] = new SignalHistory(path, name, type, width, symbol);
+                if(pSignals != null && (!(pSignals[index] instanceof SignalHistory) || !pSignals[index].getSymbol().equals(symbol) || pSignals[index].getWidth() != width))
+                    return null;
+
+                int aliases = readCount(in, 4);
+                for(int alias = 0; alias < aliases; ++alias)
+                    signals[index].addAlias(readString(in));
+
+                stateStarts[index] = in.position();
+                signals[index].readState(in);
+            }
+
+            // Existing signals read the state that just read cleanly
+            if(pSignals != null)
+            {
+                for(int index = 0; index < count; ++index)
+                {
+                    in.position(stateStarts[index]);
+                    pSignals[index].readState(in);
+                }
+                signals = pSignals;
+            }
+
+            return new ValueCache(signals, times);
+        }
+        catch(IOException | BufferUnderflowException | IndexOutOfBoundsException e)
+        {
+            // A broken cache is as good as no cache
+            return null;
+        }
+    }
+
+    /**
+     Writes the cache of the passed VCD file to a temporary file and then
+     renames it over the cache in one step.  A cache too large to load is
+     not written, and any old cache is removed; the histories alone are
+     enough to tell most of the time, otherwise writing stops at the limit.
+     @author Matthew Hicks
+     @param pVcdFile Name of the VCD file.
+     @param pSignals Every signal of the file, in index order, after reading
+     all of its values.
+     @param pTimes The time of every timespec in the file.
+     @param pTimeCount Number of valid entries in pTimes.
+     @throws java.io.IOException if the cache cannot be written
+    */
+    static void save(String pVcdFile, Signal[] pSignals, long[] pTimes, int pTimeCount)throws IOException
+    {
+        // Written beside the cache and renamed into place, so an interrupted
+        // run never leaves a partial cache behind
+        File cache = new File(pVcdFile + SUFFIX).getAbsoluteFile();
+        if(minimumSize(pSignals, pTimeCount) > MAX_SIZE)
+        {
+            cache.delete();
+            return;
+        }
+
+        File temp = File.createTempFile(cache.getName(), ".tmp", cache.getParentFile());
+        try
+        {
+            write(temp, new File(pVcdFile), pSignals, pTimes, pTimeCount);
+            Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException ioe)
+        {
+            cache.delete();
+            throw ioe;
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    // Fewest bytes the cache of the passed signals can take: a byte per
+    // timespec and per time of a history, plus the packed values
+    private static long minimumSize(Signal[] pSignals, int pTimeCount)
+    {
+        long size = pTimeCount;
+        for(Signal sig : pSignals)
+        {
+            if(sig instanceof SignalHistory)
+                size += ((SignalHistory)sig).historyBytes();
+        }
+
+        return size;
+    }
+
+    private static void write(File pCache, File pSource, Signal[] pSignals, long[] pTimes, int pTimeCount)throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new LimitedOutputStream(new FileOutputStream(pCache)), 1 << 20));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(pSource.length());
+            out.writeLong(pSource.lastModified());
+            out.writeLong(sampleHash(pSource));
+
+            out.writeInt(pTimeCount);
+            long last = 0;
+            for(int index = 0; index < pTimeCount; ++index)
+            {
+                writeVarLong(out, pTimes[index] - last);
+                last = pTimes[index];
+            }
+
+            out.writeInt(pSignals.length);
+            for(Signal sig : pSignals)
+            {
+                writeString(out, sig.getSymbol());
+                writeString(out, sig.getPath());
+                writeString(out, sig.getShortName());
+                out.writeByte(sig.getType().ordinal());
+                out.writeInt(sig.getWidth());
+                out.writeInt(sig.getAliases().size());
+                for(String alias : sig.getAliases())
+                    writeString(out, alias);
+                sig.writeState(out);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     Writes a non-negative number in as few bytes as it needs, 7 bits per
+     byte with the high bit set on every byte but the last.
+     @author Matthew Hicks
+     @param pOut Stream to write to.
+     @param pValue The number.
+     @throws java.io.IOException if the stream fails
+    */
+    static void writeVarLong(DataOutputStream pOut, long pValue)throws IOException
+    {
+        while((pValue & ~0x7FL) != 0)
+        {
+            pOut.writeByte((int)((pValue & 0x7F) | 0x80));
+            pValue >>>= 7;
+        }
+        pOut.writeByte((int)pValue);
+    }
+
+    /**
+     Reads a number written by {@link ValueCache#writeVarLong}.
+     @author Matthew Hicks
+     @param pIn Buffer to read from.
+     @return The number.
+    */
+    static long readVarLong(ByteBuffer pIn)
+    {
+        long value = 0;
+        for(int shift = 0; ; shift += 7)
+        {
+            byte b = pIn.get();
+            value |= (long)(b & 0x7F) << shift;
+            if(b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     Reads a count of items that each take at least pItemBytes bytes of the
+     cache, checking the count against the rest of the buffer before the
+     caller allocates anything for it.
+     @author Matthew Hicks
+     @param pIn Buffer to read from.
+     @param pItemBytes Fewest bytes each item takes.
+     @return The count.
+     @throws java.nio.BufferUnderflowException if the count is negative or
+     the buffer is too short to hold that many items
+    */
+    static int readCount(ByteBuffer pIn, int pItemBytes)
+    {
+        int count = pIn.getInt();
+        if(count < 0 || (long)count * pItemBytes > pIn.remaining())
+            throw new BufferUnderflowException();
+        return count;
+    }
+
+    private static void writeString(DataOutputStream pOut, String pString)throws IOException
+    {
+        byte[] bytes = pString.getBytes(StandardCharsets.UTF_8);
+        pOut.writeInt(bytes.length);
+        pOut.write(bytes);
+    }
+
+    private static String readString(ByteBuffer pIn)
+    {
+        byte[] bytes = new byte[readCount(pIn, 1)];
+        pIn.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // CRC-32 of the first and last blocks of the file
+    private static long sampleHash(File pFile)throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(pFile, "r");
+        try
+        {
+            CRC32 crc = new CRC32();
+            byte[] block = new byte[(int)Math.min(SAMPLE_SIZE, raf.length())];
+
+            raf.readFully(block);
+            crc.update(block);
+
+            raf.seek(raf.length() - block.length);
+            raf.readFully(block);
+            crc.update(block);
+
+            return crc.getValue();
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    // Fails the write once more bytes than a cache can hold go through it
+    private static final class LimitedOutputStream extends FilterOutputStream
+    {
+        private long written = 0;
+
+        LimitedOutputStream(OutputStream pOut)
+        {
+            super(pOut);
+        }
+
+        @Override
+        public void write(int pByte)throws IOException
+        {
+            count(1);
+            out.write(pByte);
+        }
+
+        @Override
+        public void write(byte[] pBytes, int pOffset, int pLength)throws IOException
+        {
+            count(pLength);
+            out.write(pBytes, pOffset, pLength);
+        }
+
+        private void count(int pBytes)throws IOException
+        {
+            written += pBytes;
+            if(written > MAX_SIZE)
+                throw new IOException("ERROR: value cache is too large to load");
+        }
+    }
+
+    /**
+     TimeRecorder is the time callback used while reading a file whose cache
+     is going to be written; it collects the time of every timespec.
+     @author Matthew Hicks
+    */
+    static final class TimeRecorder implements TimeCallback
+    {
+        private long[] times = new long[1024];
+        private int count = 0;
+
+        public void timeUpdate(long pTime)
+        {
+            if(count == times.length)
+                times = Arrays.copyOf(times, count << 1);
+            times[count++] = pTime;
+        }
+
+        long[] getTimes()
+        {
+            return times;
+        }
+
+        int getCount()
+        {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package vcd;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ ValueChunk is a byte range of the values section of a raw VCD file that
+ starts at a timespec.  Chunks are parsed independently, on ForkJoinPool
+ workers, into buffers of timespecs and value changes.  The buffers are then
+ replayed, one chunk at a time and in file order, into the signals so that
+ the result is identical to parsing the file serially.
+
+ @author Matthew Hicks
+ @see VCD#setParsingThreads
+*/
+class ValueChunk extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String vcdFile;
+    private final long start;
+    private final long end;
+    private final SymbolIndex symbols;
+
+    // Offset of the first token at or after end, set by compute, or -1 if
+    // the chunk ran to the end of the file
+    private long stop = -1;
+
+    // Timespecs in the chunk and the index of the first change at each
+    private long[] times = new long[256];
+    private int[] timeStarts = new int[256];
+    private int timeCount = 0;
+
+    // Value changes in the chunk in file order, encoded as aval/bval bits
+    // Values of signals wider than 64 bits are kept in wideWords, and their
+    // aval holds the offset of their words there.  Values inside dump blocks
+    // ($dumpvars and friends) are marked as state rather than changes.
+    private Signal[] changeSignals = new Signal[4096];
+    private long[] changeAvals = new long[4096];
+    private long[] changeBvals = new long[4096];
+    private boolean[] changeDumped = new boolean[4096];
+    private int changeCount = 0;
+    private long[] wideWords = new long[64];
+    private int wideCount = 0;
+
+    /**
+     Constructs a chunk covering the bytes [pStart, pEnd) of the file.
+     @author Matthew Hicks
+     @param pVcdFile Name of the raw VCD file.
+     @param pStart Offset of the first byte of the chunk.
+     @param pEnd Offset of the first byte after the chunk.
+     @param pSymbols Index used to resolve the symbols of value changes.
+    */
+    ValueChunk(String pVcdFile, long pStart, long pEnd, SymbolIndex pSymbols)
+    {
+        vcdFile = pVcdFile;
+        start = pStart;
+        end = pEnd;
+        symbols = pSymbols;
+    }
+
+    /**
+     Splits the bytes [pStart, pEnd) of the file into ranges of about
+     pChunkSize bytes that each start at a timespec.
+     @author Matthew Hicks
+     @param pChannel Channel of the raw VCD file.
+     @param pStart Offset of the start of the values section.
+     @param pEnd Offset of the end of the file.
+     @param pChunkSize Target number of bytes per chunk.
+     @return Chunk boundaries; chunk i covers [result[i], result[i + 1]).
+     @throws java.io.IOException if the file cannot be read
+    */
+    static long[] split(FileChannel pChannel, long pStart, long pEnd, long pChunkSize)throws IOException
+    {
+        long[] bounds = new long[16];
+        int count = 0;
+        bounds[count++] = pStart;
+
+        long offset = pStart;
+        while(offset < pEnd)
+        {
+            offset = findTimespec(pChannel, offset + pChunkSize, pEnd);
+            if(count == bounds.length)
+                bounds = Arrays.copyOf(bounds, count << 1);
+            bounds[count++] = offset;
+        }
+
+        return Arrays.copyOf(bounds, count);
+    }
+
+    // Returns the offset of the first line at or after pFrom that starts
+    // with a timespec, or pEnd if there are none.  A line inside a $comment
+    // can look like one too; the chunk before such a boundary does not stop
+    // at it, which is how the boundary is caught (see getStop).
+    private static long findTimespec(FileChannel pChannel, long pFrom, long pEnd)throws IOException
+    {
+        ByteBuffer block = ByteBuffer.allocate(1 << 16);
+        for(long offset = pFrom - 1; offset < pEnd - 1; offset += block.position() - 1)
+        {
+            block.clear();
+            if(pChannel.read(block, offset) <= 1)
+                break;
+
+            for(int index = 1; index < block.position(); ++index)
+            {
+                if(block.get(index) == '#' && block.get(index - 1) == '\n' && isTimespec(pChannel, offset + index))
+                    return offset + index;
+            }
+        }
+
+        return pEnd;
+    }
+
+    // True if the line at pOffset is a '#', then digits, then whitespace or
+    // the end of the file
+    private static boolean isTimespec(FileChannel pChannel, long pOffset)throws IOException
+    {
+        ByteBuffer line = ByteBuffer.allocate(24);
+        int length = pChannel.read(line, pOffset);
+
+        int index = 1;
+        while(index < length && line.get(index) >= '0' && line.get(index) <= '9')
+            ++index;
+
+        return index > 1 && (index == length || line.get(index) <= ' ');
+    }
+
+    /**
+     Parses the chunk into its buffers.  Runs on a ForkJoinPool worker.
+     @author Matthew Hicks
+     @throws java.io.UncheckedIOException if anything goes wrong while
+     processing the file
+    */
+    @Override
+    protected void compute()
+    {
+        VCDLexer lexer = null;
+        try
+        {
+            lexer = new VCDLexer(FileChannel.open(Paths.get(vcdFile), StandardOpenOption.READ), start);
+
+            // Chunks start at timespecs and dump blocks never span one, so
+            // every chunk starts outside of a dump block
+            boolean inDump = false;
+            int token;
+            while((token = lexer.next()) != VCDLexer.EOF)
+            {
+                if(lexer.getTokenOffset() >= end)
+                {
+                    stop = lexer.getTokenOffset();
+                    break;
+                }
+
+                if(token == VCDLexer.TIME)
+                {
+                    addTime(lexer.getTime());
+                }
+                else if(token == VCDLexer.KEYWORD)
+                {
+                    if(lexer.isDumpKeyword())
+                        inDump = true;
+                    else if(inDump && lexer.isKeyword("$end"))
+                        inDump = false;
+                    else
+                        lexer.skipKeyword();
+                }
+                else
+                {
+                    // Filtered out symbols are skipped without decoding
+                    Signal signal = lexer.lookup(symbols);
+                    if(signal != null)
+                        addChange(lexer, signal, inDump);
+                }
+            }
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+        finally
+        {
+            try
+            {
+                if(lexer != null)
+                    lexer.close();
+            }
+            catch(IOException ioe)
+            {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    /**
+     Returns the offset of the first byte of the chunk.
+     @author Matthew Hicks
+     @return The offset.
+    */
+    long getStart()
+    {
+        return start;
+    }
+
+    /**
+     Returns the offset of the first token after the chunk, once it is
+     parsed.  This is the start of the next chunk unless the boundary
+     between them fell inside a keyword block, such as a $comment, that the
+     parse of this chunk skipped past.
+     @author Matthew Hicks
+     @return The offset, or -1 if the chunk ran to the end of the file.
+    */
+    long getStop()
+    {
+        return stop;
+    }
+
+    /**
+     Applies the buffered value changes to their signals in file order,
+     calling the callback for every timespec.  Must be called for each chunk
+     in file order, after the chunk is parsed.
+     @author Matthew Hicks
+     @param pTime Current time at the start of this chunk.
+     @param pTCB Callback to call for every timespec, or null.
+     @param pTracker Tracker to report every change to, or null.
+     @return Current time at the end of this chunk.
+    */
+    long replay(long pTime, TimeCallback pTCB, ChangeTracker pTracker)
+    {
+        long[] wideAval = new long[0];
+        long[] wideBval = new long[0];
+
+        int change = 0;
+        for(int time = -1; time < timeCount; ++time)
+        {
+            if(time >= 0)
+            {
+                pTime = times[time];
+                if(pTracker != null)
+                    pTracker.startStep(pTime);
+                if(pTCB != null)
+                    pTCB.timeUpdate(pTime);
+            }
+
+            int changeEnd = (time + 1 < timeCount) ? timeStarts[time + 1] : changeCount;
+            for(; change < changeEnd; ++change)
+            {
+                Signal signal = changeSignals[change];
+                if(signal.getWidth() > 64)
+                {
+                    int words = ValueCodec.wordsFor(signal.getWidth());
+                    if(wideAval.length < words)
+                    {
+                        wideAval = new long[words];
+                        wideBval = new long[words];
+                    }
+
+                    int offset = (int)changeAvals[change];
+                    System.arraycopy(wideWords, offset, wideAval, 0, words);
+                    System.arraycopy(wideWords, offset + words, wideBval, 0, words);
+                    if(changeDumped[change])
+                    {
+                        signal.updateCounters(pTime);
+                        signal.restoreValue(wideAval, wideBval, pTime);
+                    }
+                    else
+                    {
+                        signal.setValue(wideAval, wideBval, pTime);
+                    }
+                }
+                else if(changeDumped[change])
+                {
+                    signal.updateCounters(pTime);
+                    signal.restoreValue(changeAvals[change], changeBvals[change], pTime);
+                }
+                else
+                {
+                    signal.setValue(changeAvals[change], changeBvals[change], pTime);
+                }
+                
+                if(pTracker != null && changeDumped[change])
+                    pTracker.dumped(signal);
+                else if(pTracker != null)
+                    pTracker.changed(signal, pTime);
+            }
+        }
+
+        return pTime;
+    }
+
+    private void addTime(long pTime)
+    {
+        if(timeCount == times.length)
+        {
+            times = Arrays.copyOf(times, timeCount << 1);
+            timeStarts = Arrays.copyOf(timeStarts, timeCount << 1);
+        }
+
+        times[timeCount] = pTime;
+        timeStarts[timeCount++] = changeCount;
+    }
+
+    private void addChange(VCDLexer pLexer, Signal pSignal, boolean pDumped)
+    {
+        if(changeCount == changeSignals.length)
+        {
+            changeSignals = Arrays.copyOf(changeSignals, changeCount << 1);
+            changeAvals = Arrays.copyOf(changeAvals, changeCount << 1);
+            changeBvals = Arrays.copyOf(changeBvals, changeCount << 1);
+            changeDumped = Arrays.copyOf(changeDumped, changeCount << 1);
+        }
+
+        changeSignals[changeCount] = pSignal;
+        changeDumped[changeCount] = pDumped;
+        if(pLexer.decode(pSignal.getWidth()))
+        {
+            int words = ValueCodec.wordsFor(pSignal.getWidth());
+            if(wideCount + (words << 1) > wideWords.length)
+                wideWords = Arrays.copyOf(wideWords, Math.max(wideWords.length << 1, wideCount + (words << 1)));
+
+            System.arraycopy(pLexer.getWideAval(), 0, wideWords, wideCount, words);
+            System.arraycopy(pLexer.getWideBval(), 0, wideWords, wideCount + words, words);
+            changeAvals[changeCount] = wideCount;
+            wideCount += words << 1;
+        }
+        else
+        {
+            changeAvals[changeCount] = pLexer.getAval();
+            changeBvals[changeCount] = pLexer.getBval();
+        }
+        ++changeCount;
+    }
+}
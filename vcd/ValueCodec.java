@@ -0,0 +1,190 @@
+package vcd;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ ValueCodec converts signal values between their VCD text form and the
+ aval/bval encoding of {@link LogicValue}.  Signals of 64 bits or fewer use
+ a pair of longs; wider signals use a pair of long arrays with bit 0 of the
+ signal in bit 0 of word 0.  Real values use the 64 bits of their IEEE 754
+ representation as the aval with a zero bval.
+
+ @author Matthew Hicks
+ @see LogicValue
+*/
+final class ValueCodec
+{
+    // 4-state of each VCD value character, as a LogicValue ordinal
+    private static final byte[] STATES = new byte[128];
+    static
+    {
+        Arrays.fill(STATES, (byte)3);
+        STATES['0'] = STATES['l'] = STATES['L'] = 0;
+        STATES['1'] = STATES['h'] = STATES['H'] = 1;
+        STATES['z'] = STATES['Z'] = 2;
+    }
+
+    // VCD digit of each 4-state, by LogicValue ordinal
+    static final byte[] DIGITS = {'0', '1', 'z', 'x'};
+
+    private ValueCodec()
+    {
+    }
+
+    /**
+     Returns the 4-state of a VCD value character as a LogicValue ordinal.
+     @author Matthew Hicks
+     @param pCharacter A character from a VCD value.
+     @return 0, 1, 2 (z), or 3 (x).
+    */
+    static int stateOf(int pCharacter)
+    {
+        return (pCharacter >= 0 && pCharacter < 128) ? STATES[pCharacter] : 3;
+    }
+
+    /**
+     Returns the state that a VCD vector is left-extended with when its
+     leftmost digit has the passed state: x and z extend themselves and
+     everything else extends with 0.
+     @author Matthew Hicks
+     @param pState State of the leftmost digit.
+     @return State of the extension.
+    */
+    static int extensionOf(int pState)
+    {
+        return pState == 1 ? 0 : pState;
+    }
+
+    /**
+     Returns the number of longs needed for one lane of a value.
+     @author Matthew Hicks
+     @param pWidth Number of bits in the signal.
+     @return Number of words.
+    */
+    static int wordsFor(int pWidth)
+    {
+        return (pWidth + 63) >>> 6;
+    }
+
+    /**
+     Encodes a VCD value ("1", "b10x1", or "r1.5") into aval and bval words.
+     Vectors shorter than pWidth are left-extended and longer ones are
+     truncated to their low bits.
+     @author Matthew Hicks
+     @param pValue The value in VCD format.
+     @param pWidth Number of bits in the signal.
+     @param pReal true if the signal holds real values.
+     @param pAval Receives the aval words; at least wordsFor(pWidth) long.
+     @param pBval Receives the bval words; at least wordsFor(pWidth) long.
+    */
+    static void encode(String pValue, int pWidth, boolean pReal, long[] pAval, long[] pBval)
+    {
+        if(pReal)
+        {
+            pAval[0] = Double.doubleToRawLongBits(parseReal(pValue));
+            pBval[0] = 0;
+            return;
+        }
+
+        // Skip the b prefix of vectors, then read digits from the LSB up
+        int first = (pValue.length() > 0 && (pValue.charAt(0) == 'b' || pValue.charAt(0) == 'B')) ? 1 : 0;
+        int digits = pValue.length() - first;
+        int extend = digits == 0 ? 3 : extensionOf(stateOf(pValue.charAt(first)));
+
+        for(int word = 0; word < wordsFor(pWidth); ++word)
+        {
+            int bits = Math.min(64, pWidth - (word << 6));
+            long aval = 0;
+            long bval = 0;
+            for(int bit = bits - 1; bit >= 0; --bit)
+            {
+                int index = (word << 6) + bit;
+                int state = index < digits ? stateOf(pValue.charAt(pValue.length() - 1 - index)) : extend;
+                aval = (aval << 1) | (state & 1);
+                bval = (bval << 1) | (state >>> 1);
+            }
+
+            pAval[word] = aval;
+            pBval[word] = bval;
+        }
+    }
+
+    /**
+     Formats a value in VCD format.  Scalars are a single character, vectors
+     are the shortest "b" string that left-extends to the value, and reals
+     are "r" followed by the number.
+     @author Matthew Hicks
+     @param pWidth Number of bits in the signal.
+     @param pReal true if the signal holds real values.
+     @param pAval The aval words.
+     @param pBval The bval words.
+     @return The value as a String.
+    */
+    static String format(int pWidth, boolean pReal, long[] pAval, long[] pBval)
+    {
+        if(pReal)
+            return "r" + formatReal(Double.longBitsToDouble(pAval[0]));
+
+        byte[] digits = new byte[pWidth];
+        int length = formatBits(pWidth, pAval, pBval, digits);
+        if(pWidth == 1)
+            return String.valueOf((char)digits[0]);
+
+        return "b" + new String(digits, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     Writes the digits of a value, without a "b" prefix, as the shortest
+     string that left-extends to the value.
+     @author Matthew Hicks
+     @param pWidth Number of bits in the signal.
+     @param pAval The aval words.
+     @param pBval The bval words.
+     @param pDigits Receives the digits; at least pWidth long.
+     @return Number of digits written.
+    */
+    static int formatBits(int pWidth, long[] pAval, long[] pBval, byte[] pDigits)
+    {
+        for(int bit = 0; bit < pWidth; ++bit)
+        {
+            long aval = pAval[bit >>> 6] >>> bit;
+            long bval = pBval[bit >>> 6] >>> bit;
+            pDigits[pWidth - 1 - bit] = DIGITS[(int)((aval & 1) | ((bval & 1) << 1))];
+        }
+
+        // Drop leading digits that left-extension puts back
+        int start = 0;
+        while(start < pWidth - 1 && DIGITS[extensionOf(stateOf(pDigits[start + 1]))] == pDigits[start])
+            ++start;
+
+        System.arraycopy(pDigits, start, pDigits, 0, pWidth - start);
+        return pWidth - start;
+    }
+
+    /**
+     Parses the number of a VCD real value, with or without its r prefix.
+     @author Matthew Hicks
+     @param pValue The value in VCD format.
+     @return The number, or NaN if it cannot be parsed.
+    */
+    static double parseReal(String pValue)
+    {
+        try
+        {
+            boolean prefixed = pValue.length() > 0 && (pValue.charAt(0) == 'r' || pValue.charAt(0) == 'R');
+            return Double.parseDouble(prefixed ? pValue.substring(1) : pValue);
+        }
+        catch(NumberFormatException nfe)
+        {
+            return Double.NaN;
+        }
+    }
+
+    // Integral reals are printed without a trailing ".0"
+    private static String formatReal(double pValue)
+    {
+        String result = Double.toString(pValue);
+        return result.endsWith(".0") ? result.substring(0, result.length() - 2) : result;
+    }
+}
@@ -0,0 +1,276 @@
+package vcd;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ ValueColumn is a growable, bit-packed list of the values of one signal.
+ Every bit of a value is stored as two bits, following the aval/bval
+ convention of the Verilog VPI: 0 is (0,0), 1 is (1,0), z is (0,1), and x
+ is (1,1).  A value of a signal that is width bits wide takes 2 * width
+ bits: the aval bits followed by the bval bits.  So a scalar change costs 2
+ bits and a 32-bit bus change costs 64 bits, without an object per value.
+ Real values are stored as the 64 bits of their IEEE 754 representation.
+
+ @author Matthew Hicks
+ @see SignalHistory
+*/
+class ValueColumn
+{
+    private final int width;
+    private final boolean real;
+    private final int entryBits;
+
+    private long[] words;
+    private int count = 0;
+
+    /**
+     Constructs an empty column for values of the passed width.
+     @author Matthew Hicks
+     @param pWidth Number of bits in the signal.
+     @param pReal true if the signal holds real values.
+    */
+    ValueColumn(int pWidth, boolean pReal)
+    {
+        real = pReal;
+        width = pReal ? 64 : Math.max(1, pWidth);
+        entryBits = real ? 64 : 2 * width;
+        words = new long[(entryBits + 63) >>> 6];
+    }
+
+    /**
+     Appends a value from single words.  Signals wider than 64 bits get the
+     passed bits as their low 64 bits and zeros above.
+     @author Matthew Hicks
+     @param pAval The aval bits of the value.
+     @param pBval The bval bits of the value.
+    */
+    void add(long pAval, long pBval)
+    {
+        ensureRoom();
+        long offset = (long)count * entryBits;
+
+        if(real)
+        {
+            writeBits(offset, 64, pAval);
+        }
+        else if(width <= 64)
+        {
+            writeBits(offset, width, pAval);
+            writeBits(offset + width, width, pBval);
+        }
+        else
+        {
+            for(int word = 0; word < ValueCodec.wordsFor(width); ++word)
+            {
+                int bits = Math.min(64, width - (word << 6));
+                writeBits(offset + (word << 6), bits, word == 0 ? pAval : 0);
+                writeBits(offset + width + (word << 6), bits, word == 0 ? pBval : 0);
+            }
+        }
+
+        ++count;
+    }
+
+    /**
+     Appends a value of any width.
+     @author Matthew Hicks
+     @param pAval The aval words of the value.
+     @param pBval The bval words of the value.
+    */
+    void add(long[] pAval, long[] pBval)
+    {
+        if(real || width <= 64)
+        {
+            add(pAval[0], pBval[0]);
+            return;
+        }
+
+        ensureRoom();
+        long offset = (long)count * entryBits;
+
+        for(int word = 0; word < ValueCodec.wordsFor(width); ++word)
+        {
+            int bits = Math.min(64, width - (word << 6));
+            writeBits(offset + (word << 6), bits, pAval[word]);
+            writeBits(offset + width + (word << 6), bits, pBval[word]);
+        }
+
+        ++count;
+    }
+
+    /**
+     Copies the value at the passed index into aval and bval words.
+     @author Matthew Hicks
+     @param pIndex Index of the value.
+     @param pAval Receives the aval words.
+     @param pBval Receives the bval words.
+    */
+    void read(int pIndex, long[] pAval, long[] pBval)
+    {
+        long offset = (long)pIndex * entryBits;
+
+        if(real)
+        {
+            pAval[0] = readBits(offset, 64);
+            pBval[0] = 0;
+            return;
+        }
+
+        for(int word = 0; word < ValueCodec.wordsFor(width); ++word)
+        {
+            int bits = Math.min(64, width - (word << 6));
+            pAval[word] = readBits(offset + (word << 6), bits);
+            pBval[word] = readBits(offset + width + (word << 6), bits);
+        }
+    }
+
+    /**
+     Returns the value at the passed index in VCD format.
+     @author Matthew Hicks
+     @param pIndex Index of the value.
+     @return The value as a String.
+     @see ValueCodec#format
+    */
+    String get(int pIndex)
+    {
+        long[] aval = new long[ValueCodec.wordsFor(width)];
+        long[] bval = new long[aval.length];
+        read(pIndex, aval, bval);
+
+        return ValueCodec.format(width, real, aval, bval);
+    }
+
+    /**
+     Returns the number of values in this column.
+     @author Matthew Hicks
+     @return Number of values.
+    */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     Removes every value from this column.
+     @author Matthew Hicks
+    */
+    void clear()
+    {
+        count = 0;
+        words = new long[(entryBits + 63) >>> 6];
+    }
+
+    /**
+     Writes the words that hold the values of this column.
+     @author Matthew Hicks
+     @param pOut Stream to write to.
+     @throws java.io.IOException if the stream fails
+    */
+    void write(DataOutputStream pOut)throws IOException
+    {
+        int used = usedWords(count);
+        for(int word = 0; word < used; ++word)
+            pOut.writeLong(words[word]);
+    }
+
+    /**
+     Returns the number of bytes {@link ValueColumn#write} writes.
+     @author Matthew Hicks
+     @return Number of bytes.
+    */
+    long packedBytes()
+    {
+        return (long)usedWords(count) << 3;
+    }
+
+    /**
+     Replaces the values of this column with pCount values read from what
+     {@link ValueColumn#write} wrote.
+     @author Matthew Hicks
+     @param pIn Buffer to read from.
+     @param pCount Number of values written.
+    */
+    void read(ByteBuffer pIn, int pCount)
+    {
+        // Checked before allocating, as the count comes from the cache
+        if(((((long)pCount * entryBits) + 63) >>> 6) > (pIn.remaining() >>> 3))
+            throw new BufferUnderflowException();
+
+        int used = usedWords(pCount);
+        words = new long[Math.max(used, (entryBits + 63) >>> 6)];
+        pIn.asLongBuffer().get(words, 0, used);
+        pIn.position(pIn.position() + (used << 3));
+        count = pCount;
+    }
+
+    // Number of words that hold pCount values
+    private int usedWords(int pCount)
+    {
+        return (int)((((long)pCount * entryBits) + 63) >>> 6);
+    }
+
+    /**
+     Returns true if the passed column holds the same values as this one.
+     @author Matthew Hicks
+     @param pOther The column to compare to.
+     @return true if both columns have the same values in the same order.
+    */
+    boolean sameValues(ValueColumn pOther)
+    {
+        if(count != pOther.count || entryBits != pOther.entryBits || real != pOther.real)
+            return false;
+
+        long bits = (long)count * entryBits;
+        int fullWords = (int)(bits >>> 6);
+        for(int word = 0; word < fullWords; ++word)
+        {
+            if(words[word] != pOther.words[word])
+                return false;
+        }
+
+        int rest = (int)(bits & 63);
+        return rest == 0 || readBits(bits - rest, rest) == pOther.readBits(bits - rest, rest);
+    }
+
+    // Grows the storage, if needed, to fit one more value
+    private void ensureRoom()
+    {
+        long needed = (((long)(count + 1) * entryBits) + 63) >>> 6;
+        if(needed > words.length)
+            words = Arrays.copyOf(words, (int)Math.max(needed, words.length + (words.length >> 1) + 1));
+    }
+
+    // Writes the low pBits (1 to 64) of pValue at bit offset pOffset
+    private void writeBits(long pOffset, int pBits, long pValue)
+    {
+        int word = (int)(pOffset >>> 6);
+        int shift = (int)(pOffset & 63);
+        long mask = pBits == 64 ? -1L : (1L << pBits) - 1;
+        pValue &= mask;
+
+        words[word] = (words[word] & ~(mask << shift)) | (pValue << shift);
+        if(shift + pBits > 64)
+        {
+            int spill = 64 - shift;
+            words[word + 1] = (words[word + 1] & ~(mask >>> spill)) | (pValue >>> spill);
+        }
+    }
+
+    // Reads pBits (1 to 64) bits from bit offset pOffset
+    private long readBits(long pOffset, int pBits)
+    {
+        int word = (int)(pOffset >>> 6);
+        int shift = (int)(pOffset & 63);
+        long mask = pBits == 64 ? -1L : (1L << pBits) - 1;
+
+        long result = words[word] >>> shift;
+        if(shift + pBits > 64)
+            result |= words[word + 1] << (64 - shift);
+
+        return result & mask;
+    }
+}